@@ -1,8 +1,8 @@
 package org.elasticsearch.analysis;
 
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
-import org.elasticsearch.index.dic.MonitorTask;
 
 /**
  * Created by medcl on 15/11/26.
@@ -26,6 +26,40 @@ public class PinyinConfig {
     public boolean fixedPinyinOffset =false;
     //  after 6.0, offset is strictly constrained, overlapped tokens are not allowed, with this parameter, overlapped token will allowed by ignore offset, please note, all position related query or highlight will become incorrect, you should use multi fields and specify different settings for different query purpose. if you need offset, please set it to false. default: true.
     public boolean ignorePinyinOffset =true;
+    //  when greater than 0, the tokenizer reads and converts the input in windows of this many chars instead of buffering the whole input, default: 0 (disabled)
+    public int     streamWindowSize=0;
+    //  when enabled, the tokens of a value are cached on the node and replayed when the same value is seen again, the cache is shared by all analyzers with this option, default: false
+    public boolean conversionCache=false;
+    //  pinyin analyzer only, when greater than 0, the tokens of this many query strings are cached by the analyzer, use it for analyzers that are only used as search_analyzer, default: 0 (disabled)
+    public int     queryCacheSize=0;
+    //  how long a query string stays in the query cache, default: 10m
+    public TimeValue queryCacheTtl=TimeValue.timeValueMinutes(10);
+    //  emit the syllable aligned prefixes of the joined full pinyin, eg: `刘德华`>`liu`,`liude`,`liudehua`, default: false
+    public boolean keepJoinedFullPinyinPrefix=false;
+    //  emit the prefixes of the first letters, eg: `刘德华`>`l`,`ld`,`ldh`, default: false
+    public boolean keepFirstLetterPrefix=false;
+    //  emit full pinyin prefixes followed by the first letters of the next syllables, eg: `刘德华`>`liud`,`liudh`,`liudeh`, default: false
+    public boolean keepMixedPinyinPrefix=false;
+    //  prefixes shorter than this many chars are not emitted, default: 1
+    public int     pinyinPrefixMinLength=1;
+    //  prefixes longer than this many chars are not emitted, default: 32
+    public int     pinyinPrefixMaxLength=32;
+    //  emit the joined full pinyin of consecutive chinese chars at the position of the first one, eg: `刘德华`>`liude`,`dehua`, default: false
+    public boolean keepFullPinyinNgram=false;
+    //  emit the first letters of consecutive chinese chars at the position of the first one, eg: `刘德华`>`ld`,`dh`, default: false
+    public boolean keepFirstLetterNgram=false;
+    //  the least number of chinese chars in a n-gram, default: 2
+    public int     pinyinNgramMinSize=2;
+    //  the most number of chinese chars in a n-gram, default: 2
+    public int     pinyinNgramMaxSize=2;
+    //  emit the other readings a polyphonic char has in the polyphone dictionary at the same position, eg: `单`>`dan`,`shan`, default: false
+    public boolean keepPolyphoneReadings=false;
+    //  the most other readings emitted per input by keep_polyphone_readings, default: 16
+    public int     polyphoneReadingsLimit=16;
+    //  fold full width letters, digits and punctuation to ASCII before conversion, eg: `ＡＢＣ１２３`>`abc123`, default: false
+    public boolean foldWidth=false;
+    //  convert traditional chinese chars to simplified ones before conversion, eg: `劉德華`>`liu`,`de`,`hua`, default: false
+    public boolean traditionalToSimplified=false;
 
     public PinyinConfig() {
     }
@@ -46,6 +80,23 @@ public class PinyinConfig {
         this.removeDuplicateTerm =settings.getAsBoolean("remove_duplicated_term", false);
         this.fixedPinyinOffset =settings.getAsBoolean("fixed_pinyin_offset", false);
         this.ignorePinyinOffset =settings.getAsBoolean("ignore_pinyin_offset", true);
+        this.streamWindowSize =settings.getAsInt("stream_window_size", 0);
+        this.conversionCache =settings.getAsBoolean("conversion_cache", false);
+        this.queryCacheSize =settings.getAsInt("query_cache_size", 0);
+        this.queryCacheTtl =settings.getAsTime("query_cache_ttl", TimeValue.timeValueMinutes(10));
+        this.keepJoinedFullPinyinPrefix =settings.getAsBoolean("keep_joined_full_pinyin_prefix", false);
+        this.keepFirstLetterPrefix =settings.getAsBoolean("keep_first_letter_prefix", false);
+        this.keepMixedPinyinPrefix =settings.getAsBoolean("keep_mixed_pinyin_prefix", false);
+        this.pinyinPrefixMinLength =settings.getAsInt("pinyin_prefix_min_length", 1);
+        this.pinyinPrefixMaxLength =settings.getAsInt("pinyin_prefix_max_length", 32);
+        this.keepFullPinyinNgram =settings.getAsBoolean("keep_full_pinyin_ngram", false);
+        this.keepFirstLetterNgram =settings.getAsBoolean("keep_first_letter_ngram", false);
+        this.pinyinNgramMinSize =settings.getAsInt("pinyin_ngram_min_size", 2);
+        this.pinyinNgramMaxSize =settings.getAsInt("pinyin_ngram_max_size", 2);
+        this.keepPolyphoneReadings =settings.getAsBoolean("keep_polyphone_readings", false);
+        this.polyphoneReadingsLimit =settings.getAsInt("polyphone_readings_limit", 16);
+        this.foldWidth =settings.getAsBoolean("fold_width", false);
+        this.traditionalToSimplified =settings.getAsBoolean("traditional_to_simplified", false);
     }
 
 }
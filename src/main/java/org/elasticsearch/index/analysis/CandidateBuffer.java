@@ -0,0 +1,229 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Reusable storage for the pending candidates of {@link CandidateEmitter}, kept as parallel arrays over a shared
+ * char pool instead of one {@link TermItem} and one String per candidate, so steady state conversion allocates
+ * nothing per token.
+ * <p>
+ * Candidates are appended in the order they are produced and handed out ordered by position, candidates with the
+ * same position keep their insertion order.
+ */
+final class CandidateBuffer {
+
+    private char[] chars = new char[64];
+    private int charsUsed = 0;
+
+    private int[] termOffset = new int[16];
+    private int[] termLength = new int[16];
+    private int[] startOffset = new int[16];
+    private int[] endOffset = new int[16];
+    private int[] position = new int[16];
+    private int size = 0;
+
+    //indexes of the candidates ordered by position, and the next one to hand out
+    private int[] order = new int[16];
+    private int head = 0;
+
+    /**
+     * append a candidate, lowercased and trimmed on the fly if required.
+     *
+     * @return the index of the new candidate, or -1 if the term is empty
+     */
+    int append(CharSequence term, int startOffset, int endOffset, int position, boolean lowercase, boolean trim) {
+        return append(term, 0, term.length(), startOffset, endOffset, position, lowercase, trim);
+    }
+
+    /**
+     * append term[from, to) as a candidate, lowercased and trimmed on the fly if required.
+     *
+     * @return the index of the new candidate, or -1 if the term is empty
+     */
+    int append(CharSequence term, int from, int to, int startOffset, int endOffset, int position, boolean lowercase, boolean trim) {
+        if (trim) {
+            while (from < to && term.charAt(from) <= ' ') {
+                from++;
+            }
+            while (to > from && term.charAt(to - 1) <= ' ') {
+                to--;
+            }
+        }
+        if (from == to) {
+            return -1;
+        }
+
+        if (lowercase && !isAscii(term, from, to)) {
+            //full unicode lower casing may change the length, leave it to String
+            String lower = term.subSequence(from, to).toString().toLowerCase();
+            return append(lower, startOffset, endOffset, position, false, trim);
+        }
+
+        int offset = charsUsed;
+        chars = ArrayUtil.grow(chars, charsUsed + to - from);
+        for (int i = from; i < to; i++) {
+            char c = term.charAt(i);
+            if (lowercase && c >= 'A' && c <= 'Z') {
+                c += 32;
+            }
+            chars[charsUsed++] = c;
+        }
+        return add(offset, to - from, startOffset, endOffset, position);
+    }
+
+    /**
+     * append term[offset, offset + length) as a candidate, lowercased and trimmed on the fly if required.
+     *
+     * @return the index of the new candidate, or -1 if the term is empty
+     */
+    int append(char[] term, int offset, int length, int startOffset, int endOffset, int position, boolean lowercase, boolean trim) {
+        int from = offset;
+        int to = offset + length;
+        if (trim) {
+            while (from < to && term[from] <= ' ') {
+                from++;
+            }
+            while (to > from && term[to - 1] <= ' ') {
+                to--;
+            }
+        }
+        if (from == to) {
+            return -1;
+        }
+
+        int termOffset = charsUsed;
+        chars = ArrayUtil.grow(chars, charsUsed + to - from);
+        for (int i = from; i < to; i++) {
+            char c = term[i];
+            if (lowercase && c >= 128) {
+                //full unicode lower casing may change the length, leave it to String
+                charsUsed = termOffset;
+                return append(new String(term, from, to - from).toLowerCase(), startOffset, endOffset, position, false, trim);
+            }
+            if (lowercase && c >= 'A' && c <= 'Z') {
+                c += 32;
+            }
+            chars[charsUsed++] = c;
+        }
+        return add(termOffset, to - from, startOffset, endOffset, position);
+    }
+
+    /**
+     * append a single char candidate
+     *
+     * @return the index of the new candidate, or -1 if the term is empty
+     */
+    int append(char c, int startOffset, int endOffset, int position, boolean lowercase, boolean trim) {
+        if (trim && c <= ' ') {
+            return -1;
+        }
+        if (lowercase && c >= 128) {
+            return append(String.valueOf(c), startOffset, endOffset, position, true, trim);
+        }
+        if (lowercase && c >= 'A' && c <= 'Z') {
+            c += 32;
+        }
+        int offset = charsUsed;
+        chars = ArrayUtil.grow(chars, charsUsed + 1);
+        chars[charsUsed++] = c;
+        return add(offset, 1, startOffset, endOffset, position);
+    }
+
+    private int add(int offset, int length, int start, int end, int pos) {
+        if (size == position.length) {
+            int newSize = ArrayUtil.oversize(size + 1, Integer.BYTES);
+            termOffset = ArrayUtil.growExact(termOffset, newSize);
+            termLength = ArrayUtil.growExact(termLength, newSize);
+            startOffset = ArrayUtil.growExact(startOffset, newSize);
+            endOffset = ArrayUtil.growExact(endOffset, newSize);
+            position = ArrayUtil.growExact(position, newSize);
+            order = ArrayUtil.growExact(order, newSize);
+        }
+        termOffset[size] = offset;
+        termLength[size] = length;
+        startOffset[size] = start;
+        endOffset[size] = end;
+        position[size] = pos;
+        return size++;
+    }
+
+    /**
+     * drop the last appended candidate, it must not have been enqueued
+     */
+    void discardLast() {
+        size--;
+        charsUsed = termOffset[size];
+    }
+
+    /**
+     * make the last appended candidate available to {@link #poll()}
+     */
+    void enqueue() {
+        int index = size - 1;
+        int pos = position[index];
+        //candidates mostly arrive in position order
+        int i = index;
+        while (i > head && position[order[i - 1]] > pos) {
+            order[i] = order[i - 1];
+            i--;
+        }
+        order[i] = index;
+    }
+
+    boolean hasPending() {
+        return head < size;
+    }
+
+    /**
+     * the next candidate to hand out, see {@link #hasPending()}
+     */
+    int peek() {
+        return order[head];
+    }
+
+    int poll() {
+        return order[head++];
+    }
+
+    /**
+     * forget all candidates, the arrays are kept for reuse
+     */
+    void clear() {
+        size = 0;
+        head = 0;
+        charsUsed = 0;
+    }
+
+    char[] chars() {
+        return chars;
+    }
+
+    int termOffset(int index) {
+        return termOffset[index];
+    }
+
+    int termLength(int index) {
+        return termLength[index];
+    }
+
+    int startOffset(int index) {
+        return startOffset[index];
+    }
+
+    int endOffset(int index) {
+        return endOffset[index];
+    }
+
+    int position(int index) {
+        return position[index];
+    }
+
+    private static boolean isAscii(CharSequence term, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (term.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
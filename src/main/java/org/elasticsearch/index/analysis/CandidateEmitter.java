@@ -0,0 +1,533 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.index.dic.CharNormalizer;
+import org.elasticsearch.index.dic.PinyinDictionary;
+
+
+/**
+ * Produces the pinyin candidates of one piece of text lazily and in position order, shared by
+ * {@link PinyinTokenizer} and {@link PinyinTokenFilter}.
+ * <p>
+ * The text is converted char by char, a candidate is handed out as soon as no later char can produce a
+ * candidate with a smaller position, so there is no need to collect and sort all candidates first.
+ * The whole-input terms (original, joined full pinyin and first letters) are spliced in right after the
+ * last candidate of the first position.
+ * <p>
+ * With a {@link ConversionCache} the candidates of a value are recorded into a {@link TokenPlan} while they are
+ * handed out, and replayed from the cache when the value is seen again.
+ */
+public class CandidateEmitter {
+
+    private final PinyinConfig config;
+    //position of a none chinese char when keep_none_chinese_together is disabled is its offset plus this value
+    private final int noneChinesePositionBase;
+
+    private final CandidateBuffer candidates = new CandidateBuffer();
+    private final DuplicateTermFilter termsFilter;
+    private final StringBuilder firstLetters = new StringBuilder();
+    private final StringBuilder fullPinyinLetters = new StringBuilder();
+    private final StringBuilder mixedPrefix = new StringBuilder();
+    private final StringBuilder fullPinyinNgram = new StringBuilder();
+    private final StringBuilder firstLetterNgram = new StringBuilder();
+    private final IntsRefBuilder readings = new IntsRefBuilder();
+    //other readings of polyphonic chars that may still be emitted for the input, shared by all windows of it
+    private int readingsLeft;
+    //per syllable (or kept none chinese char) of the joined full pinyin and the first letters:
+    //where it ends in the joined letters and in the source
+    private int[] fullPinyinEnds = new int[16];
+    private int[] fullPinyinSourceEnds = new int[16];
+    private int fullPinyinUnits;
+    private int[] firstLetterSourceEnds = new int[16];
+    private int firstLetterUnits;
+    private final PinyinAlphabetTokenizer alphabetTokenizer = new PinyinAlphabetTokenizer();
+
+    private String source;
+    //the source as converted, with full width forms folded and traditional chars simplified if enabled
+    private CharSequence text;
+    private char[] normalized = new char[16];
+    private final CharsRef normalizedText = new CharsRef();
+    private PinyinDictionary dictionary;
+    //kept as long as the dictionary stays the same
+    private PinyinDictionary.PhraseMatcher phraseMatcher;
+    //syllable id of every char of the source
+    private int[] syllables = new int[16];
+    private int startPosition;
+    //position of the first char of the source if it is a none chinese char kept apart
+    private int noneChineseStartPosition;
+    private int position;
+    private int offset;
+    private int lastOffset;
+    private int buffStartPosition;
+    //none chinese chars kept together
+    private char[] buff = new char[16];
+    private int buffSize;
+    private boolean scanned;
+    private boolean wholeInputAdded;
+
+    private int current = -1;
+
+    //null if values are not cached
+    private final ConversionCache cache;
+    //id of the options in the cache
+    private final int cacheKey;
+    //the cached plan being replayed, null if the value is converted
+    private TokenPlan replay;
+    private TokenPlan.Builder recorder;
+    private boolean recording;
+
+    /**
+     * @param cache the cache to replay converted values from, null to convert every value
+     */
+    public CandidateEmitter(PinyinConfig config, int noneChinesePositionBase, ConversionCache cache) {
+        this.config = config;
+        this.noneChinesePositionBase = noneChinesePositionBase;
+        //remove same term, regardless position, otherwise only same term with same position
+        this.termsFilter = new DuplicateTermFilter(config.removeDuplicateTerm);
+        this.cache = cache;
+        this.cacheKey = cache == null ? -1 : ConversionCache.configId(config, noneChinesePositionBase);
+        this.readingsLeft = config.polyphoneReadingsLimit;
+    }
+
+    /**
+     * start a new input, polyphone_readings_limit counts the other readings of the whole input, not of every text
+     * passed to {@link #reset(String, int, PinyinDictionary)}, which may only be one window of it
+     */
+    public void resetReadingsLimit() {
+        this.readingsLeft = config.polyphoneReadingsLimit;
+    }
+
+    /**
+     * start emitting candidates of the given text, positions are counted from startPosition. The dictionary is the
+     * snapshot pinned by the caller for the whole input, a reload in between does not change how it is converted.
+     *
+     * @return false if the text has nothing to convert
+     */
+    public boolean reset(String source, int startPosition, PinyinDictionary dictionary) {
+        return reset(source, startPosition, startPosition, dictionary);
+    }
+
+    /**
+     * like {@link #reset(String, int, PinyinDictionary)} for a text that starts at sourceOffset of a larger input,
+     * none chinese chars kept apart get positions by their offset in the whole input.
+     */
+    public boolean reset(String source, int startPosition, int sourceOffset, PinyinDictionary dictionary) {
+        this.source = source;
+        this.startPosition = startPosition;
+        this.noneChineseStartPosition = sourceOffset + noneChinesePositionBase;
+        this.position = startPosition;
+        this.offset = 0;
+        this.lastOffset = 0;
+        this.buffStartPosition = 0;
+        this.buffSize = 0;
+        this.wholeInputAdded = false;
+        this.current = -1;
+        this.replay = null;
+        this.recording = false;
+        candidates.clear();
+        termsFilter.clear();
+
+        scanned = isBlank(source);
+        if (scanned) {
+            //nothing to convert, skip the whole input terms as well
+            wholeInputAdded = true;
+            return false;
+        }
+
+        this.dictionary = dictionary;
+        //plans are relative to startPosition, so they only fit if none chinese positions are relative to it too
+        if (cache != null && (sourceOffset == startPosition || !config.keepNoneChinese || config.keepNoneChineseTogether)) {
+            TokenPlan plan = cache.get(cacheKey, source);
+            if (plan != null && plan.dictionary == dictionary) {
+                replay = plan;
+                position = startPosition + plan.lastPosition();
+                return true;
+            }
+            if (cache.accepts(source)) {
+                if (recorder == null) {
+                    recorder = new TokenPlan.Builder();
+                }
+                recorder.clear();
+                recording = true;
+            }
+        }
+
+        text = source;
+        if (config.foldWidth || config.traditionalToSimplified) {
+            //one char to one char, offsets into the source stay valid
+            normalized = ArrayUtil.grow(normalized, source.length());
+            CharNormalizer.normalize(source, source.length(), normalized, config.foldWidth, config.traditionalToSimplified);
+            normalizedText.chars = normalized;
+            normalizedText.length = source.length();
+            text = normalizedText;
+        }
+        syllables = ArrayUtil.grow(syllables, source.length());
+        phraseMatcher = dictionary.phraseMatcher(phraseMatcher);
+        dictionary.convert(text, 0, source.length(), syllables, phraseMatcher);
+        return true;
+    }
+
+    /**
+     * move to the next candidate, its term stays in {@link #termBuffer()} until the next call
+     */
+    public boolean next() {
+        if (replay != null) {
+            current = Math.min(current + 1, replay.size());
+            return current < replay.size();
+        }
+
+        while (true) {
+            if (candidates.hasPending()) {
+                int itemPosition = candidates.position(candidates.peek());
+                if ((wholeInputAdded || itemPosition <= startPosition + 1) && (scanned || itemPosition <= nextPosition())) {
+                    current = candidates.poll();
+                    if (recording) {
+                        recorder.add(candidates.chars(), candidates.termOffset(current), candidates.termLength(current),
+                                candidates.startOffset(current), candidates.endOffset(current), candidates.position(current) - startPosition);
+                    }
+                    return true;
+                }
+            }
+
+            //with remove_duplicated_term the whole input terms only survive if no converted char produced them,
+            //so they have to wait until the whole text is converted
+            if (!wholeInputAdded && (scanned || (!config.removeDuplicateTerm && nextPosition() > startPosition + 1))) {
+                wholeInputAdded = true;
+                addWholeInput();
+                continue;
+            }
+
+            if (!candidates.hasPending()) {
+                candidates.clear();
+            }
+
+            if (scanned) {
+                current = -1;
+                if (recording) {
+                    recording = false;
+                    cache.put(cacheKey, source, recorder.build(dictionary, position - startPosition));
+                }
+                return false;
+            }
+
+            scan();
+        }
+    }
+
+    public char[] termBuffer() {
+        return replay != null ? replay.chars() : candidates.chars();
+    }
+
+    public int termOffset() {
+        return replay != null ? replay.termOffset(current) : candidates.termOffset(current);
+    }
+
+    public int termLength() {
+        return replay != null ? replay.termLength(current) : candidates.termLength(current);
+    }
+
+    public int startOffset() {
+        return replay != null ? replay.startOffset(current) : candidates.startOffset(current);
+    }
+
+    public int endOffset() {
+        return replay != null ? replay.endOffset(current) : candidates.endOffset(current);
+    }
+
+    public int termPosition() {
+        return replay != null ? startPosition + replay.position(current) : candidates.position(current);
+    }
+
+    /**
+     * the last position used by the converted text
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * the smallest position any candidate of the not yet converted chars can get
+     */
+    private int nextPosition() {
+        int next = position + 1;
+        if (config.keepNoneChinese && !config.keepNoneChineseTogether) {
+            next = Math.min(next, noneChineseStartPosition + offset);
+        }
+        return next;
+    }
+
+    private void scan() {
+        if (offset >= source.length()) {
+            //clean previous temp
+            if (buffSize > 0) {
+                parseBuff();
+            }
+            scanned = true;
+            return;
+        }
+
+        int i = offset++;
+        char c = text.charAt(i);
+        int syllable = syllables[i];
+        //keep original alphabet
+        if (c < 128) {
+            if (buffSize <= 0) {
+                buffStartPosition = noneChineseStartPosition + i;
+            }
+            if ((c > 96 && c < 123) || (c > 64 && c < 91) || (c > 47 && c < 58)) {
+                if (config.keepNoneChinese) {
+                    if (config.keepNoneChineseTogether) {
+                        buff = ArrayUtil.grow(buff, buffSize + 1);
+                        buff[buffSize++] = c;
+                    } else {
+                        addCandidate(c, i, i + 1, buffStartPosition);
+                    }
+                }
+            }
+        } else {
+            //clean previous temp
+            if (buffSize > 0) {
+                parseBuff();
+            }
+
+            String pinyin = syllable == PinyinDictionary.NO_SYLLABLE ? null : dictionary.syllable(syllable);
+            if (pinyin != null && pinyin.length() > 0) {
+                position++;
+                if (config.keepSeparateFirstLetter & pinyin.length() > 1) {
+                    addCandidate(pinyin.charAt(0), i, i + 1, position);
+                }
+                if (config.keepFullPinyin) {
+                    addCandidate(pinyin, i, i + 1, position);
+                }
+                if (config.keepPolyphoneReadings && readingsLeft > 0) {
+                    addReadings(i, syllable);
+                }
+                if (config.keepFullPinyinNgram || config.keepFirstLetterNgram) {
+                    addNgrams(i);
+                }
+            }
+        }
+
+        lastOffset = i;
+    }
+
+    /**
+     * the other readings of a polyphonic char at its position, as long as the limit of the input allows
+     */
+    private void addReadings(int i, int syllable) {
+        int count = dictionary.readings(Character.codePointAt(text, i), readings);
+        for (int r = 0; r < count && readingsLeft > 0; r++) {
+            int reading = readings.intAt(r);
+            String pinyin = dictionary.syllable(reading);
+            if (reading == syllable || pinyin.length() == 0) {
+                continue;
+            }
+            readingsLeft--;
+            if (config.keepSeparateFirstLetter & pinyin.length() > 1) {
+                addCandidate(pinyin.charAt(0), i, i + 1, position);
+            }
+            if (config.keepFullPinyin) {
+                addCandidate(pinyin, i, i + 1, position);
+            }
+        }
+    }
+
+    /**
+     * n-grams of the chinese chars starting at the given one, at its position. A n-gram only spans chars that
+     * got a syllable, so the positions of its chars are consecutive and phrase queries over n-grams still line up.
+     */
+    private void addNgrams(int start) {
+        fullPinyinNgram.setLength(0);
+        firstLetterNgram.setLength(0);
+        for (int i = start; i < source.length() && i - start < config.pinyinNgramMaxSize; i++) {
+            int syllable = syllables[i];
+            if (text.charAt(i) < 128 || syllable == PinyinDictionary.NO_SYLLABLE || dictionary.syllable(syllable).length() == 0) {
+                return;
+            }
+            fullPinyinNgram.append(dictionary.syllable(syllable));
+            firstLetterNgram.append(dictionary.firstLetter(syllable));
+
+            int size = i - start + 1;
+            if (size >= config.pinyinNgramMinSize) {
+                int end = config.fixedPinyinOffset ? start + 1 : i + 1;
+                if (config.keepFullPinyinNgram) {
+                    addCandidate(fullPinyinNgram, start, end, position);
+                }
+                if (config.keepFirstLetterNgram) {
+                    addCandidate(firstLetterNgram, start, end, position);
+                }
+            }
+        }
+    }
+
+    private void parseBuff() {
+        if (config.keepNoneChinese) {
+            if (config.noneChinesePinyinTokenize) {
+                int pieces = alphabetTokenizer.split(buff, 0, buffSize);
+                int[] boundaries = alphabetTokenizer.boundaries();
+                int start = (lastOffset - buffSize + 1);
+                for (int i = 0; i < pieces; i++) {
+                    int end;
+                    int length = boundaries[i + 1] - boundaries[i];
+                    if (config.fixedPinyinOffset) {
+                        end = start + 1;
+                    } else {
+                        end = start + length;
+                    }
+                    //pinyin pieces are always lowercased
+                    addCandidate(candidates.append(buff, boundaries[i], length, start, end, ++position, true, config.trimWhitespace));
+                    start = end;
+                }
+            } else if (config.keepFirstLetter || config.keepSeparateFirstLetter || config.keepFullPinyin || !config.keepNoneChineseInJoinedFullPinyin) {
+                addCandidate(candidates.append(buff, 0, buffSize, lastOffset - buffSize, lastOffset, ++position, config.lowercase, config.trimWhitespace));
+            }
+        }
+
+        buffSize = 0;
+    }
+
+    private void addWholeInput() {
+        int wholePosition = startPosition + 1;
+
+        if (config.keepOriginal) {
+            addCandidate(source, 0, source.length(), wholePosition);
+        }
+
+        boolean keepFullPrefix = config.keepJoinedFullPinyinPrefix || config.keepMixedPinyinPrefix;
+        if (!config.keepJoinedFullPinyin && !config.keepFirstLetter && !keepFullPrefix && !config.keepFirstLetterPrefix) {
+            return;
+        }
+
+        firstLetters.setLength(0);
+        fullPinyinLetters.setLength(0);
+        fullPinyinUnits = 0;
+        firstLetterUnits = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                if ((c > 96 && c < 123) || (c > 64 && c < 91) || (c > 47 && c < 58)) {
+                    if (config.keepNoneChineseInFirstLetter) {
+                        firstLetters.append(c);
+                        addFirstLetterUnit(i + 1);
+                    }
+                    if (config.keepNoneChineseInJoinedFullPinyin) {
+                        fullPinyinLetters.append(c);
+                        addFullPinyinUnit(i + 1);
+                    }
+                }
+            } else if (syllables[i] != PinyinDictionary.NO_SYLLABLE && dictionary.syllable(syllables[i]).length() > 0) {
+                firstLetters.append(dictionary.firstLetter(syllables[i]));
+                addFirstLetterUnit(i + 1);
+                if (config.keepJoinedFullPinyin || keepFullPrefix) {
+                    fullPinyinLetters.append(dictionary.syllable(syllables[i]));
+                    addFullPinyinUnit(i + 1);
+                }
+            }
+        }
+
+        if (config.keepJoinedFullPinyin && fullPinyinLetters.length() > 0) {
+            addCandidate(fullPinyinLetters, 0, source.length(), wholePosition);
+        }
+
+        if (config.keepFirstLetter && firstLetters.length() > 0) {
+            int length = firstLetters.length();
+            if (length > config.LimitFirstLetterLength && config.LimitFirstLetterLength > 0) {
+                length = config.LimitFirstLetterLength;
+            }
+            if (!(config.keepSeparateFirstLetter && length <= 1)) {
+                addCandidate(firstLetters, 0, length, 0, length, wholePosition);
+            }
+        }
+
+        addPrefixes(wholePosition);
+    }
+
+    /**
+     * edge n-grams of the joined full pinyin and of the first letters, cut at syllable boundaries only
+     */
+    private void addPrefixes(int wholePosition) {
+        int min = config.pinyinPrefixMinLength;
+        int max = config.pinyinPrefixMaxLength;
+
+        if (config.keepJoinedFullPinyinPrefix) {
+            for (int unit = 0; unit < fullPinyinUnits && fullPinyinEnds[unit] <= max; unit++) {
+                if (fullPinyinEnds[unit] >= min) {
+                    addCandidate(fullPinyinLetters, 0, fullPinyinEnds[unit], 0, fullPinyinSourceEnds[unit], wholePosition);
+                }
+            }
+        }
+
+        if (config.keepFirstLetterPrefix) {
+            for (int unit = 0; unit < firstLetterUnits && unit < max; unit++) {
+                if (unit + 1 >= min) {
+                    addCandidate(firstLetters, 0, unit + 1, 0, firstLetterSourceEnds[unit], wholePosition);
+                }
+            }
+        }
+
+        if (config.keepMixedPinyinPrefix) {
+            //the full pinyin of the first syllables, followed by the first letters of at least one more syllable
+            for (int full = 0; full < fullPinyinUnits - 1 && fullPinyinEnds[full] < max; full++) {
+                mixedPrefix.setLength(0);
+                mixedPrefix.append(fullPinyinLetters, 0, fullPinyinEnds[full]);
+                for (int unit = full + 1; unit < fullPinyinUnits && mixedPrefix.length() < max; unit++) {
+                    mixedPrefix.append(fullPinyinLetters.charAt(fullPinyinEnds[unit - 1]));
+                    if (mixedPrefix.length() >= min) {
+                        addCandidate(mixedPrefix, 0, fullPinyinSourceEnds[unit], wholePosition);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addFullPinyinUnit(int sourceEnd) {
+        if (fullPinyinUnits == fullPinyinEnds.length) {
+            fullPinyinEnds = ArrayUtil.grow(fullPinyinEnds, fullPinyinUnits + 1);
+            fullPinyinSourceEnds = ArrayUtil.grow(fullPinyinSourceEnds, fullPinyinUnits + 1);
+        }
+        fullPinyinEnds[fullPinyinUnits] = fullPinyinLetters.length();
+        fullPinyinSourceEnds[fullPinyinUnits++] = sourceEnd;
+    }
+
+    private void addFirstLetterUnit(int sourceEnd) {
+        firstLetterSourceEnds = ArrayUtil.grow(firstLetterSourceEnds, firstLetterUnits + 1);
+        firstLetterSourceEnds[firstLetterUnits++] = sourceEnd;
+    }
+
+    private void addCandidate(char c, int startOffset, int endOffset, int position) {
+        addCandidate(candidates.append(c, startOffset, endOffset, position, config.lowercase, config.trimWhitespace));
+    }
+
+    private void addCandidate(CharSequence term, int startOffset, int endOffset, int position) {
+        addCandidate(candidates.append(term, startOffset, endOffset, position, config.lowercase, config.trimWhitespace));
+    }
+
+    private void addCandidate(CharSequence term, int from, int to, int startOffset, int endOffset, int position) {
+        addCandidate(candidates.append(term, from, to, startOffset, endOffset, position, config.lowercase, config.trimWhitespace));
+    }
+
+    private void addCandidate(int index) {
+        if (index < 0) {
+            return;
+        }
+
+        if (!termsFilter.add(candidates.chars(), candidates.termOffset(index), candidates.termLength(index), candidates.position(index))) {
+            candidates.discardLast();
+            return;
+        }
+
+        candidates.enqueue();
+    }
+
+    private static boolean isBlank(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            if (!Character.isWhitespace(source.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.dic.ESPluginLoggerFactory;
+import org.elasticsearch.index.dic.PinyinDictionary;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 转换缓存：相同的值直接重放缓存的分词结果
+ * <p>
+ * A size-bounded LRU cache of {@link TokenPlan}s keyed by the analyzer options and the value, optionally expiring
+ * entries some time after they were added. The node level instance is shared by all analyzers with
+ * {@code conversion_cache} enabled, a {@link PinyinAnalyzer} with {@code query_cache_size} set has its own.
+ * A cache is emptied when the dictionary is reloaded, plans computed with an older dictionary are not replayed either.
+ */
+public final class ConversionCache {
+
+    private static final Logger logger = ESPluginLoggerFactory.getLogger(ConversionCache.class.getName());
+
+    public static final Setting<Integer> SIZE_SETTING = Setting.intSetting("pinyin.conversion_cache.size", 10000, 0, Setting.Property.NodeScope);
+
+    //longer values rarely repeat, they are not cached
+    static final int MAX_TEXT_LENGTH = 128;
+
+    //one id per distinct set of options, there are only as many as there are analyzer configurations
+    private static final Map<Options, Integer> CONFIG_IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_CONFIG_ID = new AtomicInteger();
+
+    private static volatile ConversionCache instance = new ConversionCache(SIZE_SETTING.get(Settings.EMPTY));
+
+    static {
+        PinyinDictionary.addReloadListener(dictionary -> instance.invalidateAll());
+    }
+
+    //null if the cache is disabled
+    private final Cache<Key, TokenPlan> cache;
+    //the dictionary the entries were computed with
+    private volatile PinyinDictionary dictionary;
+
+    private ConversionCache(int size) {
+        this(size, null);
+    }
+
+    /**
+     * @param size       the maximal number of cached values, 0 disables the cache
+     * @param expiration how long a value is kept after it was added, null to keep it until it is evicted
+     */
+    public ConversionCache(int size, TimeValue expiration) {
+        CacheBuilder<Key, TokenPlan> builder = CacheBuilder.<Key, TokenPlan>builder().setMaximumWeight(size);
+        if (expiration != null && expiration.nanos() > 0) {
+            builder.setExpireAfterWrite(expiration);
+        }
+        this.cache = size == 0 ? null : builder.build();
+    }
+
+    public static ConversionCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * size the cache from the node settings, the current entries are dropped
+     */
+    public static void configure(Settings settings) {
+        instance = new ConversionCache(SIZE_SETTING.get(settings));
+    }
+
+    /**
+     * a compact id of the options that change the tokens of a value, equal options get the same id. A new option that
+     * changes the tokens has to be added here.
+     */
+    static int configId(PinyinConfig config, int noneChinesePositionBase) {
+        boolean[] flags = {config.lowercase, config.trimWhitespace, config.keepNoneChinese, config.keepNoneChineseInFirstLetter,
+                config.keepNoneChineseInJoinedFullPinyin, config.keepOriginal, config.keepFirstLetter, config.keepSeparateFirstLetter,
+                config.keepNoneChineseTogether, config.noneChinesePinyinTokenize, config.keepFullPinyin, config.keepJoinedFullPinyin,
+                config.removeDuplicateTerm, config.fixedPinyinOffset, config.ignorePinyinOffset, config.keepJoinedFullPinyinPrefix,
+                config.keepFirstLetterPrefix, config.keepMixedPinyinPrefix, config.keepFullPinyinNgram, config.keepFirstLetterNgram,
+                config.keepPolyphoneReadings, config.foldWidth, config.traditionalToSimplified};
+        int bits = 0;
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                bits |= 1 << i;
+            }
+        }
+        Options options = new Options(new int[]{bits, config.LimitFirstLetterLength, config.streamWindowSize,
+                config.pinyinPrefixMinLength, config.pinyinPrefixMaxLength, config.pinyinNgramMinSize, config.pinyinNgramMaxSize,
+                config.polyphoneReadingsLimit, noneChinesePositionBase});
+        return CONFIG_IDS.computeIfAbsent(options, o -> NEXT_CONFIG_ID.getAndIncrement());
+    }
+
+    TokenPlan get(int configId, String text) {
+        if (!accepts(text)) {
+            return null;
+        }
+        PinyinDictionary current = PinyinDictionary.getInstance();
+        if (current != dictionary) {
+            //the dictionary was reloaded since the last lookup
+            dictionary = current;
+            cache.invalidateAll();
+            return null;
+        }
+        return cache.get(new Key(configId, text));
+    }
+
+    boolean accepts(String text) {
+        return cache != null && text.length() <= MAX_TEXT_LENGTH;
+    }
+
+    void put(int configId, String text, TokenPlan plan) {
+        if (accepts(text)) {
+            cache.put(new Key(configId, text), plan);
+        }
+    }
+
+    public void invalidateAll() {
+        if (cache != null) {
+            logger.info("pinyin conversion cache cleared, {} entries, {} hits, {} misses", cache.count(), hits(), misses());
+            cache.invalidateAll();
+        }
+    }
+
+    public int count() {
+        return cache == null ? 0 : cache.count();
+    }
+
+    public long hits() {
+        return cache == null ? 0 : cache.stats().getHits();
+    }
+
+    public long misses() {
+        return cache == null ? 0 : cache.stats().getMisses();
+    }
+
+    public long evictions() {
+        return cache == null ? 0 : cache.stats().getEvictions();
+    }
+
+    private static final class Options {
+        private final int[] values;
+
+        Options(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Options && Arrays.equals(values, ((Options) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    private static final class Key {
+        private final int config;
+        private final String text;
+        private final int hash;
+
+        Key(int config, String text) {
+            this.config = config;
+            this.text = text;
+            this.hash = 31 * config + text.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && config == key.config && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Remembers the terms already emitted for one value, an open addressing hash table over primitive arrays
+ * replacing a HashSet of term + position Strings.
+ * <p>
+ * Keys are the term chars plus the position, or the term chars only when positions are ignored
+ * (remove_duplicated_term). Terms are copied into an own char pool since the candidate buffer is recycled
+ * while a value is still being emitted. {@link #clear()} only touches the slots in use.
+ */
+final class DuplicateTermFilter {
+
+    private final boolean ignorePosition;
+
+    //slot -> entry index + 1, 0 is an empty slot
+    private int[] slots = new int[64];
+    private int mask = slots.length - 1;
+
+    private int[] hash = new int[16];
+    private int[] slot = new int[16];
+    private int[] position = new int[16];
+    private int[] termOffset = new int[16];
+    private int[] termLength = new int[16];
+    private int size = 0;
+
+    private char[] chars = new char[64];
+    private int charsUsed = 0;
+
+    DuplicateTermFilter(boolean ignorePosition) {
+        this.ignorePosition = ignorePosition;
+    }
+
+    /**
+     * @return true if the term was not seen before at this position, it is remembered from now on
+     */
+    boolean add(char[] buffer, int offset, int length, int pos) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + buffer[i];
+        }
+        if (!ignorePosition) {
+            h = 31 * h + pos;
+        }
+        h = mix(h);
+
+        int s = h & mask;
+        while (slots[s] != 0) {
+            int entry = slots[s] - 1;
+            if (hash[entry] == h && equals(entry, buffer, offset, length, pos)) {
+                return false;
+            }
+            s = (s + 1) & mask;
+        }
+
+        if (size == hash.length) {
+            int newSize = ArrayUtil.oversize(size + 1, Integer.BYTES);
+            hash = ArrayUtil.growExact(hash, newSize);
+            slot = ArrayUtil.growExact(slot, newSize);
+            position = ArrayUtil.growExact(position, newSize);
+            termOffset = ArrayUtil.growExact(termOffset, newSize);
+            termLength = ArrayUtil.growExact(termLength, newSize);
+        }
+        chars = ArrayUtil.grow(chars, charsUsed + length);
+        System.arraycopy(buffer, offset, chars, charsUsed, length);
+        hash[size] = h;
+        position[size] = pos;
+        termOffset[size] = charsUsed;
+        termLength[size] = length;
+        slot[size] = s;
+        slots[s] = ++size;
+        charsUsed += length;
+
+        //keep the load factor under 0.5
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * forget all terms, costs the number of remembered terms rather than the table capacity
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            slots[slot[i]] = 0;
+        }
+        size = 0;
+        charsUsed = 0;
+    }
+
+    private boolean equals(int entry, char[] buffer, int offset, int length, int pos) {
+        if (termLength[entry] != length || (!ignorePosition && position[entry] != pos)) {
+            return false;
+        }
+        int start = termOffset[entry];
+        for (int i = 0; i < length; i++) {
+            if (chars[start + i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int s = hash[entry] & mask;
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = entry + 1;
+            slot[entry] = s;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -24,6 +24,6 @@ public class PinyinAbbreviationsTokenizerFactory extends AbstractTokenizerFactor
         config.lowercase=true;
         config.trimWhitespace=true;
         config.keepNoneChineseInFirstLetter=true;
-        return new PinyinTokenizer(config);
+        return new PinyinFirstLetterTokenizer(config);
     }
 }
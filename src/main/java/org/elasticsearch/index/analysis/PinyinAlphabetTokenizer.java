@@ -1,5 +1,7 @@
 package org.elasticsearch.index.analysis;
 
+import org.apache.lucene.util.ArrayUtil;
+
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -7,165 +9,142 @@ import java.util.*;
 
 /**
  * Created by medcl on 16/10/13.
+ * <p>
+ * Letter runs are split into the fewest pieces, every piece is a syllable of the alphabet dict or a run of chars
+ * no syllable starts at. {@link #split(char[], int, int)} works on a range of the caller's chars and reports the
+ * piece boundaries in a reused array, so an instance allocates nothing once its scratch arrays are large enough.
+ * An instance is not thread safe.
  */
 public class PinyinAlphabetTokenizer {
 
     private static final int PINYIN_MAX_LENGTH = 6;
 
-    public static List<String> walk(String text) {
-        return segPinyinStr(text);
-    }
+    private final PinyinAlphabetDict dict = PinyinAlphabetDict.getInstance();
 
-    private static List<String> segPinyinStr(String content) {
-        String pinyinStr = content;
-        pinyinStr = pinyinStr.toLowerCase();
-        // 按非letter切分
-        List<String> pinyinStrList = splitByNoletter(pinyinStr);
-        List<String> pinyinList = new ArrayList<>();
-        for (String pinyinText : pinyinStrList) {
-            if (pinyinText.length() == 1) {
-                pinyinList.add(pinyinText);
-            } else {
-                List<String> forward = positiveMaxMatch(pinyinText, PINYIN_MAX_LENGTH);
-                if (forward.size() == 1) { // 前向只切出1个的话，没有必要再做逆向分词
-                    pinyinList.addAll(forward);
-                } else {
-                    // 分别正向、逆向最大匹配，选出最短的作为最优结果
-                    List<String> backward = reverseMaxMatch(pinyinText, PINYIN_MAX_LENGTH);
-                    if (forward.size() <= backward.size()) {
-                        pinyinList.addAll(forward);
-                    } else {
-                        pinyinList.addAll(backward);
-                    }
-                }
-            }
+    //piece i of the last split is text[boundaries[i], boundaries[i + 1])
+    private int[] boundaries = new int[16];
+    private int pieceCount = 0;
+
+    //scratch, indexed by offset in the run: fewest pieces of the rest of the run, when the char before is a
+    //syllable end or an unmatched char, and the length of the syllable to take there, 0 if none starts there
+    private int[] pieces = new int[16];
+    private int[] unmatchedPieces = new int[16];
+    private int[] syllableLength = new int[16];
+
+    public static List<String> walk(String text) {
+        char[] pinyinStr = text.toLowerCase().toCharArray();
+        PinyinAlphabetTokenizer tokenizer = new PinyinAlphabetTokenizer();
+        int count = tokenizer.split(pinyinStr, 0, pinyinStr.length);
+        List<String> pinyinList = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pinyinList.add(new String(pinyinStr, tokenizer.boundaries[i], tokenizer.boundaries[i + 1] - tokenizer.boundaries[i]));
         }
         return pinyinList;
     }
 
-    private static List<String> splitByNoletter(String pinyinStr) {
-        List<String> pinyinStrList = new ArrayList<>();
-        StringBuffer sb = new StringBuffer();
-        boolean lastWord = true;
-        for (char c : pinyinStr.toCharArray()) {
-            if ((c > 96 && c < 123) || (c > 64 && c < 91)) {
-                if (!lastWord){
-                    pinyinStrList.add(sb.toString());
-                    sb.setLength(0);
-                }
-                sb.append(c);
-                lastWord = true;
+    /**
+     * split text[offset, offset + length) into pieces, ASCII letters are matched case insensitively.
+     *
+     * @return the number of pieces, their boundaries are in {@link #boundaries()}
+     */
+    public int split(char[] text, int offset, int length) {
+        int end = offset + length;
+        boundaries = ArrayUtil.grow(boundaries, length + 1);
+        boundaries[0] = offset;
+        pieceCount = 0;
+        // 按非letter切分
+        int start = offset;
+        while (start < end) {
+            boolean letter = isLetter(text[start]);
+            int runEnd = start + 1;
+            while (runEnd < end && isLetter(text[runEnd]) == letter) {
+                runEnd++;
+            }
+            if (runEnd - start == 1) {
+                boundaries[++pieceCount] = runEnd;
             } else {
-                if (lastWord & sb.length()>0) {
-                    pinyinStrList.add(sb.toString());
-                    sb.setLength(0);
-                }
-                sb.append(c);
-                lastWord = false;
+                segment(text, start, runEnd);
             }
+            start = runEnd;
         }
-        if (sb.length() > 0) {
-            pinyinStrList.add(sb.toString());
-        }
-        return pinyinStrList;
+        return pieceCount;
+    }
 
+    /**
+     * boundaries of the pieces of the last {@link #split(char[], int, int)}, piece i is
+     * text[boundaries[i], boundaries[i + 1]). The array is reused by the next split.
+     */
+    public int[] boundaries() {
+        return boundaries;
     }
 
-    private static List<String> positiveMaxMatch(String pinyinText, int maxLength) {
+    private static boolean isLetter(char c) {
+        return (c > 96 && c < 123) || (c > 64 && c < 91);
+    }
 
-        List<String> pinyinList = new ArrayList<>();
-        StringBuffer noMatchBuffer = new StringBuffer();
-        for (int start = 0; start < pinyinText.length(); ) {
-            int end = start + maxLength;
-            if (end > pinyinText.length()) {
-                end = pinyinText.length();
-            }
-            if (start == end) {
-                break;
-            }
-            String sixStr = pinyinText.substring(start, end);
-            boolean match = false;
-            for (int j = 0; j < sixStr.length(); j++) {
-                String guess = sixStr.substring(0, sixStr.length() - j);
-                if (PinyinAlphabetDict.getInstance().match(guess)) {
-                    pinyinList.add(guess);
-                    start += guess.length();
-                    match = true;
-                    break;
-                }
-            }
-            if (!match) { //没命中,向后移动一位
-                noMatchBuffer.append(sixStr.substring(0, 1));
-                start++;
-            }else { // 命中，加上之前没命中的，并清空
-                if (noMatchBuffer.length() > 0) {
-                    pinyinList.add(noMatchBuffer.toString());
-                    noMatchBuffer.setLength(0);
-                }
-            }
+    /**
+     * split text[from, to) into the fewest pieces, of equal splits the one with the longer syllables first wins
+     */
+    private void segment(char[] text, int from, int to) {
+        int length = to - from;
+        if (pieces.length < length + 1) {
+            pieces = new int[ArrayUtil.oversize(length + 1, Integer.BYTES)];
+            unmatchedPieces = new int[pieces.length];
+            syllableLength = new int[pieces.length];
         }
-        if (noMatchBuffer.length() > 0) {
-            pinyinList.add(noMatchBuffer.toString());
-            noMatchBuffer.setLength(0);
-        }
-
-        return pinyinList;
-    }
 
-    private static List<String> reverseMaxMatch(String pinyinText, int maxLength) {
-        List<String> pinyinList = new ArrayList<>();
-        StringBuffer noMatchBuffer = new StringBuffer();
-        for (int end = pinyinText.length(); end >= 0; ) {
-            int start = end - maxLength;
-            if (start < 0) {
-                start = 0;
-            }
-            if (start == end) {
-                break;
-            }
-            boolean match = false;
-            String sixStr = pinyinText.substring(start, end);
-            for (int j = 0; j < sixStr.length(); j++) {
-                String guess = sixStr.substring(j);
-                if (PinyinAlphabetDict.getInstance().match(guess)) {
-                    pinyinList.add(guess);
-                    end -= guess.length();
-                    match = true;
-                    break;
-                }
-            }
-            if (!match) { //一个也没命中
-                noMatchBuffer.append(sixStr.substring(sixStr.length() - 1));
-                end--;
+        pieces[length] = 0;
+        unmatchedPieces[length] = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            int matches = dict.matchLengths(text, from + i, Math.min(to, from + i + PINYIN_MAX_LENGTH));
+            if (matches == 0) {
+                //an unmatched char starts a piece, or joins the unmatched piece before it
+                syllableLength[i] = 0;
+                pieces[i] = 1 + unmatchedPieces[i + 1];
+                unmatchedPieces[i] = unmatchedPieces[i + 1];
             } else {
-                if (noMatchBuffer.length() > 0) {
-                    pinyinList.add(noMatchBuffer.toString());
-                    noMatchBuffer.setLength(0);
+                int best = Integer.MAX_VALUE;
+                int bestLength = 0;
+                for (int l = 31 - Integer.numberOfLeadingZeros(matches); l > 0; l--) {
+                    if ((matches & (1 << l)) != 0 && 1 + pieces[i + l] < best) {
+                        best = 1 + pieces[i + l];
+                        bestLength = l;
+                    }
                 }
+                syllableLength[i] = bestLength;
+                pieces[i] = best;
+                unmatchedPieces[i] = best;
             }
         }
 
-        if (noMatchBuffer.length() > 0) {
-            pinyinList.add(noMatchBuffer.toString());
-            noMatchBuffer.setLength(0);
+        for (int i = 0; i < length; ) {
+            int end = i + syllableLength[i];
+            if (end == i) {
+                while (end < length && syllableLength[end] == 0) {
+                    end++;
+                }
+            }
+            boundaries[++pieceCount] = from + end;
+            i = end;
         }
-        // reverse 保持切词顺序
-        Collections.reverse(pinyinList);
-        return pinyinList;
     }
 
 
 }
 
+/**
+ * 拼音音节词典，编译为字典树，一次遍历即可得到某位置开始的所有音节，不产生子串
+ */
  class PinyinAlphabetDict {
 
     private static final String fileName = "/pinyin_alphabet.dict";
 
-    private Set<String> alphabet = new HashSet<String>();
+    private final Trie syllables;
 
     private static PinyinAlphabetDict instance;
 
     private PinyinAlphabetDict() {
+        List<String> alphabet = new ArrayList<>();
         InputStream in = PinyinAlphabetDict.class.getResourceAsStream(fileName);
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
         try {
@@ -183,6 +162,7 @@ public class PinyinAlphabetTokenizer {
             } catch (Exception ignored) {
             }
         }
+        syllables = new Trie(alphabet);
     }
 
     public static PinyinAlphabetDict getInstance() {
@@ -197,6 +177,95 @@ public class PinyinAlphabetTokenizer {
     }
 
     public boolean match(String c) {
-        return alphabet.contains(c);
+        char[] chars = c.toCharArray();
+        return chars.length > 0 && chars.length < 32 && (matchLengths(chars, 0, chars.length) & (1 << chars.length)) != 0;
+    }
+
+    /**
+     * the syllables text[start, start + length) with start + length <= end, end - start must be less than 32.
+     * ASCII letters are matched case insensitively.
+     *
+     * @return a bit set of the lengths of the syllables, bit length is set for every syllable, 0 if none
+     */
+    public int matchLengths(char[] text, int start, int end) {
+        return syllables.matchLengths(text, start, end);
+    }
+
+    /**
+     * a deterministic automaton over the chars of the syllables, transitions are a flat table indexed by
+     * state and symbol, chars are mapped to symbols by direct lookup
+     */
+    private static final class Trie {
+        //char -> symbol + 1, 0 for chars that are in no syllable
+        private final int[] symbols;
+        private final int symbolCount;
+        //state * symbolCount + symbol -> next state, 0 for none as the root is never a target
+        private final int[] transitions;
+        private final boolean[] accept;
+
+        Trie(List<String> words) {
+            char maxChar = 0;
+            for (String word : words) {
+                for (int i = 0; i < word.length(); i++) {
+                    maxChar = (char) Math.max(maxChar, word.charAt(i));
+                }
+            }
+            symbols = new int[maxChar + 1];
+            int count = 0;
+            for (String word : words) {
+                for (int i = 0; i < word.length(); i++) {
+                    if (symbols[word.charAt(i)] == 0) {
+                        symbols[word.charAt(i)] = ++count;
+                    }
+                }
+            }
+            symbolCount = count;
+
+            int states = 1;
+            for (String word : words) {
+                states += word.length();
+            }
+            int[] table = new int[states * symbolCount];
+            boolean[] accepting = new boolean[states];
+            int used = 1;
+            for (String word : words) {
+                int state = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    char c = word.charAt(i);
+                    int index = state * symbolCount + symbols[c] - 1;
+                    if (table[index] == 0) {
+                        table[index] = used++;
+                    }
+                    state = table[index];
+                }
+                accepting[state] = true;
+            }
+            transitions = Arrays.copyOf(table, used * symbolCount);
+            accept = Arrays.copyOf(accepting, used);
+        }
+
+        int matchLengths(char[] text, int start, int end) {
+            int lengths = 0;
+            int state = 0;
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = text[i];
+                if (c >= 'A' && c <= 'Z') {
+                    c += 32;
+                }
+                if (c >= symbols.length || symbols[c] == 0) {
+                    break;
+                }
+                state = transitions[state * symbolCount + symbols[c] - 1];
+                if (state == 0) {
+                    break;
+                }
+                length++;
+                if (accept[state]) {
+                    lengths |= 1 << length;
+                }
+            }
+            return lengths;
+        }
     }
 }
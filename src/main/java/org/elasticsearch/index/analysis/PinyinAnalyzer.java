@@ -3,7 +3,6 @@ package org.elasticsearch.index.analysis;
 import org.apache.lucene.analysis.Analyzer;
 import org.elasticsearch.analysis.PinyinConfig;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.index.dic.MonitorTask;
 
 /**
  * Created by IntelliJ IDEA.
@@ -14,14 +13,27 @@ import org.elasticsearch.index.dic.MonitorTask;
 public final class PinyinAnalyzer extends Analyzer {
 
     private PinyinConfig config;
+    //query strings analyzed by this analyzer, null if disabled
+    private final ConversionCache queryCache;
 
     public PinyinAnalyzer(PinyinConfig config) {
         this.config=config;
+        this.queryCache = config.queryCacheSize > 0 ? new ConversionCache(config.queryCacheSize, config.queryCacheTtl) : null;
     }
 
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
+        if (queryCache != null) {
+            return new TokenStreamComponents(new PinyinTokenizer(config, queryCache));
+        }
         return new TokenStreamComponents(new PinyinTokenizer(config));
     }
 
+    /**
+     * the query cache of this analyzer, null if query_cache_size is not set
+     */
+    public ConversionCache getQueryCache() {
+        return queryCache;
+    }
+
 }
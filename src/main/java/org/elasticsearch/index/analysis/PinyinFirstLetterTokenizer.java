@@ -0,0 +1,132 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.CharsRef;
+import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.index.dic.CharNormalizer;
+import org.elasticsearch.index.dic.PinyinDictionary;
+
+import java.io.IOException;
+
+/**
+ * 拼音首字母分词：整个输入只产生一个首字母缩写词
+ * <p>
+ * Produces the same single term as a {@link PinyinTokenizer} with only {@code keep_first_letter} enabled, without
+ * the candidate machinery: the first letters are read from the per-char table of the {@link PinyinDictionary}, the
+ * phrase dictionary is only walked at chars that start a phrase, and the letters are written straight into the term
+ * attribute. Honours {@code keep_none_chinese_in_first_letter}, {@code limit_first_letter_length}, {@code lowercase},
+ * {@code fold_width} and {@code traditional_to_simplified}, the term only holds letters and digits, so there is no
+ * whitespace to trim. Its offsets span the whole input.
+ */
+public class PinyinFirstLetterTokenizer extends Tokenizer {
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PinyinConfig config;
+
+    private char[] buffer = new char[256];
+    private final CharsRef text = new CharsRef();
+    private int[] syllables = new int[256];
+    //kept as long as the dictionary stays the same
+    private PinyinDictionary.PhraseMatcher phraseMatcher;
+    private boolean done = false;
+    //chars read from the input
+    private int length = 0;
+
+    public PinyinFirstLetterTokenizer(PinyinConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public final boolean incrementToken() throws IOException {
+        clearAttributes();
+        if (done) {
+            return false;
+        }
+        done = true;
+
+        length = readInput();
+        if (isBlank(buffer, length)) {
+            return false;
+        }
+
+        PinyinDictionary dictionary = PinyinDictionary.getInstance();
+        syllables = ArrayUtil.grow(syllables, length);
+        text.chars = buffer;
+        text.offset = 0;
+        text.length = length;
+        if (config.foldWidth || config.traditionalToSimplified) {
+            CharNormalizer.normalize(text, length, buffer, config.foldWidth, config.traditionalToSimplified);
+        }
+        phraseMatcher = dictionary.phraseMatcher(phraseMatcher);
+        dictionary.convert(text, 0, length, syllables, phraseMatcher);
+
+        int limit = config.LimitFirstLetterLength > 0 ? config.LimitFirstLetterLength : Integer.MAX_VALUE;
+        char[] letters = termAtt.resizeBuffer(Math.min(length, limit));
+        int count = 0;
+        for (int i = 0; i < length && count < limit; i++) {
+            char c = buffer[i];
+            if (c < 128) {
+                if (config.keepNoneChineseInFirstLetter && ((c > 96 && c < 123) || (c > 64 && c < 91) || (c > 47 && c < 58))) {
+                    letters[count++] = c;
+                }
+            } else if (syllables[i] != PinyinDictionary.NO_SYLLABLE && dictionary.syllable(syllables[i]).length() > 0) {
+                letters[count++] = dictionary.firstLetter(syllables[i]);
+            }
+        }
+
+        if (count == 0) {
+            return false;
+        }
+        if (config.lowercase) {
+            for (int i = 0; i < count; i++) {
+                if (letters[i] >= 'A' && letters[i] <= 'Z') {
+                    letters[i] += 32;
+                }
+            }
+        }
+        termAtt.setLength(count);
+        offsetAtt.setOffset(0, correctOffset(length));
+        return true;
+    }
+
+    private int readInput() throws IOException {
+        int upto = 0;
+        while (true) {
+            final int length = input.read(buffer, upto, buffer.length - upto);
+            if (length == -1) {
+                return upto;
+            }
+            upto += length;
+            if (upto == buffer.length) {
+                buffer = ArrayUtil.grow(buffer, upto + 1);
+            }
+        }
+    }
+
+    private static boolean isBlank(char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!Character.isWhitespace(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public final void end() throws IOException {
+        super.end();
+        int finalOffset = correctOffset(length);
+        offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        done = false;
+        length = 0;
+    }
+}
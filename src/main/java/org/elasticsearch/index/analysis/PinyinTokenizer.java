@@ -5,55 +5,54 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.elasticsearch.analysis.PinyinConfig;
-import org.elasticsearch.index.dic.MonitorTask;
-import org.nlpcn.commons.lang.pinyin.Pinyin;
+import org.elasticsearch.index.dic.PinyinDictionary;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
 
 
 public class PinyinTokenizer extends Tokenizer {
 
-    //由于ES在加载Pinyin插件时没有加载MonitorTask类，所以在这里手动启动MonitorTask中的静态代码块，以启动监控线程，监控远程文件改变
-    MonitorTask monitorTask = new MonitorTask();
     private static final int DEFAULT_BUFFER_SIZE = 256;
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
     private boolean done = false;
     private boolean processedCandidate = false;
-    private boolean processedSortCandidate = false;
-    private boolean processedFirstLetter = false;
-    private boolean processedFullPinyinLetter = false;
-    private boolean processedOriginal = false;
-    protected int position = 0;
-    protected int lastOffset = 0;
     private OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
     private PositionIncrementAttribute positionAttr = addAttribute(PositionIncrementAttribute.class);
     private PinyinConfig config;
-    ArrayList<TermItem> candidate;
-    protected int candidateOffset = 0; //indicate candidates process offset
-    private HashSet<String> termsFilter;
-    StringBuilder firstLetters;
-    StringBuilder fullPinyinLetters;
+    private CandidateEmitter emitter;
+    //the dictionary snapshot used for the whole input, even if it is reloaded meanwhile
+    private PinyinDictionary dictionary;
 
     private int lastIncrementPosition = 0;
 
     String source;
 
+    //streaming mode, see PinyinConfig.streamWindowSize
+    private char[] streamBuffer;
+    private int streamBufferLength = 0;
+    private boolean inputExhausted = false;
+    private int offsetBase = 0;
+    private int windowStartPosition = 0;
+
     public PinyinTokenizer(PinyinConfig config) {
+        this(config, config.conversionCache ? ConversionCache.getInstance() : null);
+    }
+
+    /**
+     * @param cache the cache to replay converted values from, null to convert every value
+     */
+    public PinyinTokenizer(PinyinConfig config, ConversionCache cache) {
         this(DEFAULT_BUFFER_SIZE);
         this.config = config;
 
         //validate config
-        if (!(config.keepFirstLetter || config.keepSeparateFirstLetter || config.keepFullPinyin || config.keepJoinedFullPinyin)) {
-            throw new ConfigErrorException("pinyin config error, can't disable separate_first_letter, first_letter and full_pinyin at the same time.");
+        if (!(config.keepFirstLetter || config.keepSeparateFirstLetter || config.keepFullPinyin || config.keepJoinedFullPinyin
+                || config.keepJoinedFullPinyinPrefix || config.keepFirstLetterPrefix || config.keepMixedPinyinPrefix
+                || config.keepFullPinyinNgram || config.keepFirstLetterNgram)) {
+            throw new ConfigErrorException("pinyin config error, can't disable keep_first_letter, keep_separate_first_letter, keep_full_pinyin, keep_joined_full_pinyin, keep_joined_full_pinyin_prefix, keep_first_letter_prefix, keep_mixed_pinyin_prefix, keep_full_pinyin_ngram and keep_first_letter_ngram at the same time.");
         }
-        candidate = new ArrayList<>();
-        termsFilter = new HashSet<>();
-        firstLetters = new StringBuilder();
-        fullPinyinLetters = new StringBuilder();
+        //a cached window replays the readings it was recorded with, regardless of what the earlier windows used up
+        emitter = new CandidateEmitter(config, 1, config.streamWindowSize > 0 && config.keepPolyphoneReadings ? null : cache);
     }
 
     public PinyinTokenizer(int bufferSize) {
@@ -61,73 +60,28 @@ public class PinyinTokenizer extends Tokenizer {
         termAtt.resizeBuffer(bufferSize);
     }
 
-    void addCandidate(TermItem item) {
-
-        String term = item.term;
-        if (config.lowercase) {
-            term = term.toLowerCase();
-        }
-
-        if (config.trimWhitespace) {
-            term = term.trim();
-        }
-        item.term = term;
-
-        if (term.length() == 0) {
-            return;
-        }
-
-        //remove same term with same position
-        String fr=term+item.position;
-
-        //remove same term, regardless position
-        if (config.removeDuplicateTerm) {
-             fr=term;
-        }
-
-        if (termsFilter.contains(fr)) {
-            return;
-        }
-        termsFilter.add(fr);
-
-        candidate.add(item);
-    }
-
-
-    void setTerm(String term, int startOffset, int endOffset, int position) {
-        if (config.lowercase) {
-            term = term.toLowerCase();
-        }
-
-        if (config.trimWhitespace) {
-            term = term.trim();
-        }
-
-        //ignore empty term
-        if(term.length()==0){
-            return;
-        }
-
-        termAtt.setEmpty();
-        termAtt.append(term);
+    void setTerm() {
+        termAtt.copyBuffer(emitter.termBuffer(), emitter.termOffset(), emitter.termLength());
+        int startOffset = emitter.startOffset();
+        int endOffset = emitter.endOffset();
         if (startOffset < 0) {
             startOffset = 0;
         }
         if (endOffset < startOffset) {
-            endOffset = startOffset + term.length();
+            endOffset = startOffset + emitter.termLength();
         }
 
         if(!config.ignorePinyinOffset){
-            offsetAtt.setOffset(correctOffset(startOffset), correctOffset(endOffset));
+            offsetAtt.setOffset(correctOffset(offsetBase + startOffset), correctOffset(offsetBase + endOffset));
         }
 
-        int offset = position - lastIncrementPosition;
+        int offset = emitter.termPosition() - lastIncrementPosition;
         if (offset < 0) {
             offset = 0;
         }
         positionAttr.setPositionIncrement(offset);
 
-        lastIncrementPosition = position;
+        lastIncrementPosition = emitter.termPosition();
     }
 
     @Override
@@ -135,161 +89,119 @@ public class PinyinTokenizer extends Tokenizer {
 
         clearAttributes();
 
-        if (!done) {
+        while (!done) {
 
             //combine text together to get right pinyin
             if (!processedCandidate) {
                 processedCandidate = true;
-                int upto = 0;
-                char[] buffer = termAtt.buffer();
-                while (true) {
-                    final int length = input.read(buffer, upto, buffer.length - upto);
-                    if (length == -1) break;
-                    upto += length;
-                    if (upto == buffer.length)
-                        buffer = termAtt.resizeBuffer(1 + buffer.length);
-                }
-                termAtt.setLength(upto);
-                source = termAtt.toString();
-
-                List<String> pinyinList = Pinyin.pinyin(source);
-                if (pinyinList.size() == 0) return false;
-
-                StringBuilder buff = new StringBuilder();
-                int buffStartPosition = 0;
-                int buffSize = 0;
-
-                position = 0;
-
-                for (int i = 0; i < source.length(); i++) {
-                    char c = source.charAt(i);
-                    //keep original alphabet
-                    if (c < 128) {
-                        if (buff.length() <= 0) {
-                            buffStartPosition = i+1;
-                        }
-                        if ((c > 96 && c < 123) || (c > 64 && c < 91) || (c > 47 && c < 58)) {
-                            if (config.keepNoneChinese) {
-                                if (config.keepNoneChinese) {
-                                    if (config.keepNoneChineseTogether) {
-                                        buff.append(c);
-                                        buffSize++;
-                                    } else {
-                                        addCandidate(new TermItem(String.valueOf(c), i, i + 1, buffStartPosition));
-                                    }
-                                }
-                            }
-                            if (config.keepNoneChineseInFirstLetter) {
-                                firstLetters.append(c);
-                            }
-                            if (config.keepNoneChineseInJoinedFullPinyin) {
-                                fullPinyinLetters.append(c);
-                            }
-                        }
-                    } else {
-
-                        //clean previous temp
-                        if (buff.length() > 0) {
-                            buffSize = parseBuff(buff, buffSize, buffStartPosition);
-                        }
-
-                        String pinyin = pinyinList.get(i);
-                        if (pinyin != null && pinyin.length() > 0) {
-                            position++;
-                            firstLetters.append(pinyin.charAt(0));
-                            if (config.keepSeparateFirstLetter & pinyin.length() > 1) {
-                                addCandidate(new TermItem(String.valueOf(pinyin.charAt(0)), i, i + 1, position));
-                            }
-                            if (config.keepFullPinyin) {
-                                addCandidate(new TermItem(pinyin, i, i + 1, position));
-                            }
-                            if (config.keepJoinedFullPinyin) {
-                                fullPinyinLetters.append(pinyin);
-                            }
-                        }
+                if (config.streamWindowSize > 0) {
+                    if (!readWindow()) {
+                        done = true;
+                        return false;
                     }
-
-                    lastOffset = i;
-
+                } else {
+                    int upto = 0;
+                    char[] buffer = termAtt.buffer();
+                    while (true) {
+                        final int length = input.read(buffer, upto, buffer.length - upto);
+                        if (length == -1) break;
+                        upto += length;
+                        if (upto == buffer.length)
+                            buffer = termAtt.resizeBuffer(1 + buffer.length);
+                    }
+                    termAtt.setLength(upto);
+                    source = termAtt.toString();
                 }
 
-                //clean previous temp
-                if (buff.length() > 0) {
-                    buffSize = parseBuff(buff, buffSize, buffStartPosition);
+                if (!emitter.reset(source, windowStartPosition, offsetBase, dictionary)) {
+                    //blank window, move on to the rest of the input
+                    if (config.streamWindowSize > 0) {
+                        nextWindow();
+                        continue;
+                    }
+                    return false;
                 }
             }
 
-            if (config.keepOriginal && !processedOriginal) {
-                processedOriginal = true;
-                addCandidate(new TermItem(source, 0, source.length(), 1));
+            if (emitter.next()) {
+                setTerm();
+                return true;
             }
 
-            if (config.keepJoinedFullPinyin && !processedFullPinyinLetter && fullPinyinLetters.length() > 0) {
-                processedFullPinyinLetter = true;
-                addCandidate(new TermItem(fullPinyinLetters.toString(), 0, source.length(), 1));
-                fullPinyinLetters.setLength(0);
+            if (config.streamWindowSize > 0 && (streamBufferLength > 0 || !inputExhausted)) {
+                nextWindow();
+                continue;
             }
 
+            done = true;
+        }
+        return false;
+    }
 
-            if (config.keepFirstLetter && firstLetters.length() > 0 && !processedFirstLetter) {
-                processedFirstLetter = true;
-                String fl;
-                if (firstLetters.length() > config.LimitFirstLetterLength && config.LimitFirstLetterLength > 0) {
-                    fl = firstLetters.substring(0, config.LimitFirstLetterLength);
-                } else {
-                    fl = firstLetters.toString();
+    /**
+     * read the next window of input into {@link #source}, the window ends right after the last
+     * char that can not be part of a pinyin term or polyphone phrase, so that no word is cut in half,
+     * only when the whole buffer contains no such char the window is cut at its full size.
+     */
+    private boolean readWindow() throws IOException {
+        if (streamBuffer == null || streamBuffer.length != config.streamWindowSize) {
+            streamBuffer = new char[config.streamWindowSize];
+        }
+        while (!inputExhausted && streamBufferLength < streamBuffer.length) {
+            final int length = input.read(streamBuffer, streamBufferLength, streamBuffer.length - streamBufferLength);
+            if (length == -1) {
+                inputExhausted = true;
+                break;
+            }
+            streamBufferLength += length;
+        }
+        if (streamBufferLength == 0) {
+            return false;
+        }
+
+        int cut = streamBufferLength;
+        if (!inputExhausted) {
+            for (int i = streamBufferLength - 1; i >= 0; i--) {
+                char c = streamBuffer[i];
+                if (Character.isHighSurrogate(c)) {
+                    //never cut between the two halves of a supplementary char
+                    continue;
                 }
-                if (config.lowercase) {
-                    fl = fl.toLowerCase();
+                int codePoint = c;
+                if (Character.isLowSurrogate(c) && i > 0 && Character.isHighSurrogate(streamBuffer[i - 1])) {
+                    codePoint = Character.toCodePoint(streamBuffer[i - 1], c);
                 }
-                if (!(config.keepSeparateFirstLetter && fl.length() <= 1)) {
-                    addCandidate(new TermItem(fl, 0, fl.length(), 1));
+                if (isWindowBoundary(codePoint)) {
+                    cut = i + 1;
+                    break;
                 }
             }
-
-            if (!processedSortCandidate) {
-                processedSortCandidate = true;
-                Collections.sort(candidate);
-            }
-
-            if (candidateOffset < candidate.size()) {
-                TermItem item = candidate.get(candidateOffset);
-                candidateOffset++;
-                setTerm(item.term, item.startOffset, item.endOffset, item.position);
-                return true;
+            if (cut == streamBufferLength && cut > 1 && Character.isHighSurrogate(streamBuffer[cut - 1])) {
+                //no boundary at all, keep the high surrogate for the next window with its low half
+                cut--;
             }
-
-
-            done = true;
-            return false;
         }
-        return false;
+        source = new String(streamBuffer, 0, cut);
+        streamBufferLength -= cut;
+        System.arraycopy(streamBuffer, cut, streamBuffer, 0, streamBufferLength);
+        return true;
     }
 
-    private int parseBuff(StringBuilder buff, int buffSize, int buffPosition) {
-        if (config.keepNoneChinese) {
-            if (config.noneChinesePinyinTokenize) {
-                List<String> result = PinyinAlphabetTokenizer.walk(buff.toString());
-                int start = (lastOffset - buffSize + 1);
-                for (int i = 0; i < result.size(); i++) {
-                    int end;
-                    String t = result.get(i);
-                    if (config.fixedPinyinOffset) {
-                        end = start + 1;
-                    } else {
-                        end = start + t.length();
-                    }
-                    addCandidate(new TermItem(result.get(i), start, end, ++position));
-                    start = end;
-                }
-            } else if (config.keepFirstLetter || config.keepSeparateFirstLetter || config.keepFullPinyin || !config.keepNoneChineseInJoinedFullPinyin) {
-                addCandidate(new TermItem(buff.toString(), lastOffset - buffSize, lastOffset, ++position));
-            }
+    private static boolean isWindowBoundary(int codePoint) {
+        if (codePoint < 128) {
+            return !((codePoint > 96 && codePoint < 123) || (codePoint > 64 && codePoint < 91) || (codePoint > 47 && codePoint < 58));
         }
+        return !Character.isLetterOrDigit(codePoint);
+    }
 
-        buff.setLength(0);
-        buffSize = 0;
-        return buffSize;
+    /**
+     * move offsets and positions past the current window
+     */
+    private void nextWindow() {
+        offsetBase += source.length();
+        windowStartPosition = Math.max(emitter.position(), lastIncrementPosition);
+        this.processedCandidate = false;
+        source = null;
     }
 
     @Override
@@ -300,19 +212,16 @@ public class PinyinTokenizer extends Tokenizer {
     @Override
     public void reset() throws IOException {
         super.reset();
-        position = 0;
-        candidateOffset = 0;
         this.done = false;
         this.processedCandidate = false;
-        this.processedFirstLetter = false;
-        this.processedFullPinyinLetter = false;
-        this.processedOriginal = false;
-        firstLetters.setLength(0);
-        fullPinyinLetters.setLength(0);
-        termsFilter.clear();
-        candidate.clear();
         source = null;
         lastIncrementPosition = 0;
+        streamBufferLength = 0;
+        inputExhausted = false;
+        offsetBase = 0;
+        windowStartPosition = 0;
+        emitter.resetReadingsLimit();
+        dictionary = PinyinDictionary.getInstance();
     }
 
 
@@ -0,0 +1,107 @@
+package org.elasticsearch.index.analysis;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.elasticsearch.index.dic.PinyinDictionary;
+
+/**
+ * The tokens of one converted value in compact form: all terms in one char array, offsets relative to the value and
+ * positions relative to the position the value started at, so a plan can be replayed for any occurrence of the value.
+ */
+final class TokenPlan {
+
+    //the dictionary the plan was computed with, a plan of an older dictionary is not replayed
+    final PinyinDictionary dictionary;
+
+    private final char[] chars;
+    //term i is chars[termEnd[i - 1], termEnd[i])
+    private final int[] termEnd;
+    private final int[] startOffset;
+    private final int[] endOffset;
+    private final int[] position;
+    //the last position used by the value
+    private final int lastPosition;
+
+    private TokenPlan(PinyinDictionary dictionary, char[] chars, int[] termEnd, int[] startOffset, int[] endOffset, int[] position, int lastPosition) {
+        this.dictionary = dictionary;
+        this.chars = chars;
+        this.termEnd = termEnd;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.position = position;
+        this.lastPosition = lastPosition;
+    }
+
+    int size() {
+        return termEnd.length;
+    }
+
+    char[] chars() {
+        return chars;
+    }
+
+    int termOffset(int index) {
+        return index == 0 ? 0 : termEnd[index - 1];
+    }
+
+    int termLength(int index) {
+        return termEnd[index] - termOffset(index);
+    }
+
+    int startOffset(int index) {
+        return startOffset[index];
+    }
+
+    int endOffset(int index) {
+        return endOffset[index];
+    }
+
+    int position(int index) {
+        return position[index];
+    }
+
+    int lastPosition() {
+        return lastPosition;
+    }
+
+    /**
+     * collects the tokens of a value while they are emitted, reused for every value
+     */
+    static final class Builder {
+        private char[] chars = new char[64];
+        private int charsUsed = 0;
+        private int[] termEnd = new int[16];
+        private int[] startOffset = new int[16];
+        private int[] endOffset = new int[16];
+        private int[] position = new int[16];
+        private int size = 0;
+
+        void clear() {
+            charsUsed = 0;
+            size = 0;
+        }
+
+        void add(char[] buffer, int offset, int length, int start, int end, int pos) {
+            chars = ArrayUtil.grow(chars, charsUsed + length);
+            System.arraycopy(buffer, offset, chars, charsUsed, length);
+            charsUsed += length;
+            if (size == termEnd.length) {
+                int newSize = ArrayUtil.oversize(size + 1, Integer.BYTES);
+                termEnd = ArrayUtil.growExact(termEnd, newSize);
+                startOffset = ArrayUtil.growExact(startOffset, newSize);
+                endOffset = ArrayUtil.growExact(endOffset, newSize);
+                position = ArrayUtil.growExact(position, newSize);
+            }
+            termEnd[size] = charsUsed;
+            startOffset[size] = start;
+            endOffset[size] = end;
+            position[size] = pos;
+            size++;
+        }
+
+        TokenPlan build(PinyinDictionary dictionary, int lastPosition) {
+            return new TokenPlan(dictionary, ArrayUtil.copyOfSubArray(chars, 0, charsUsed), ArrayUtil.copyOfSubArray(termEnd, 0, size),
+                    ArrayUtil.copyOfSubArray(startOffset, 0, size), ArrayUtil.copyOfSubArray(endOffset, 0, size),
+                    ArrayUtil.copyOfSubArray(position, 0, size), lastPosition);
+        }
+    }
+}
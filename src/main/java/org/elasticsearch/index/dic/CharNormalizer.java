@@ -0,0 +1,95 @@
+package org.elasticsearch.index.dic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 全角转半角、繁体转简体：转换拼音前对每个字符查表
+ * <p>
+ * Both mappings are one char to one char, so the text keeps its length and every offset still points into the
+ * original input, there is nothing to correct like with a char filter. The traditional to simplified table is built
+ * from the {@code trad.txt} and {@code simp.txt} shipped with nlp-lang, which list the chars line by line, and covers
+ * the range of traditional chars only.
+ */
+public final class CharNormalizer {
+
+    public static final String TRADITIONAL_FILE = "/trad.txt";
+    public static final String SIMPLIFIED_FILE = "/simp.txt";
+
+    private CharNormalizer() {
+    }
+
+    /**
+     * write text[0, length) to out[0, length) with the full width forms folded and traditional chars simplified as
+     * requested, out may be the array text is a view of.
+     */
+    public static void normalize(CharSequence text, int length, char[] out, boolean foldWidth, boolean simplify) {
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (foldWidth) {
+                c = foldWidth(c);
+            }
+            if (simplify) {
+                c = toSimplified(c);
+            }
+            out[i] = c;
+        }
+    }
+
+    /**
+     * the ASCII form of a full width letter, digit, punctuation or space, other chars as they are
+     */
+    public static char foldWidth(char c) {
+        if (c >= '！' && c <= '～') {
+            return (char) (c - 0xFEE0);
+        }
+        if (c == '　') {
+            return ' ';
+        }
+        return c;
+    }
+
+    /**
+     * the simplified form of a traditional char, other chars as they are
+     */
+    public static char toSimplified(char c) {
+        int index = c - Simplified.BASE;
+        if (index >= 0 && index < Simplified.TABLE.length && Simplified.TABLE[index] != 0) {
+            return Simplified.TABLE[index];
+        }
+        return c;
+    }
+
+    /**
+     * loaded on first use, only when an analyzer converts traditional chars
+     */
+    private static final class Simplified {
+        //traditional char - BASE -> simplified char, 0 if the char is not traditional
+        private static final char[] TABLE;
+        private static final int BASE;
+
+        static {
+            char[] table = new char[Character.MAX_VALUE + 1];
+            int min = Character.MAX_VALUE;
+            int max = 0;
+            try (BufferedReader trad = PinyinDictionary.openResource(TRADITIONAL_FILE);
+                 BufferedReader simp = PinyinDictionary.openResource(SIMPLIFIED_FILE)) {
+                String t;
+                String s;
+                while ((t = trad.readLine()) != null && (s = simp.readLine()) != null) {
+                    //a traditional char listed twice keeps its first simplified form
+                    if (t.length() == 1 && s.length() == 1 && t.charAt(0) != s.charAt(0) && table[t.charAt(0)] == 0) {
+                        table[t.charAt(0)] = s.charAt(0);
+                        min = Math.min(min, t.charAt(0));
+                        max = Math.max(max, t.charAt(0));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("read traditional chinese dic error.", e);
+            }
+            BASE = min;
+            TABLE = max < min ? new char[0] : Arrays.copyOfRange(table, min, max + 1);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.elasticsearch.index.dic;
+
+import org.elasticsearch.common.hash.MessageDigests;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * 词典文件内容的 SHA-256 摘要，远程和本地文件共用
+ * <p>
+ * The content is hashed while it is read and parsed, so it is never buffered as a whole. After the read,
+ * {@link #unchanged()} tells whether it is the content that was {@link #accept() accepted} last, in which case
+ * the parsed result can be dropped. Not thread safe, every monitor has its own.
+ */
+final class ContentHash {
+
+    private final MessageDigest digest = MessageDigests.sha256();
+    //hash of the content read last, not yet accepted
+    private byte[] read;
+    //hash of the content the current dictionary was built from, null if it was not built from a whole file
+    private byte[] accepted;
+
+    /**
+     * a reader over the UTF-8 content of the stream, every byte read is hashed
+     */
+    BufferedReader reader(InputStream in) {
+        digest.reset();
+        read = null;
+        return new BufferedReader(new InputStreamReader(new DigestInputStream(in, digest), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * whether the content read through the last {@link #reader(InputStream)} equals the one accepted last
+     */
+    boolean unchanged() {
+        if (read == null) {
+            read = digest.digest();
+        }
+        return Arrays.equals(read, accepted);
+    }
+
+    /**
+     * the content read last is the one of the current dictionary
+     */
+    void accept() {
+        unchanged();
+        accepted = read;
+    }
+
+    /**
+     * the current dictionary is no longer the one of a whole file
+     */
+    void clear() {
+        accepted = null;
+    }
+}
@@ -0,0 +1,147 @@
+package org.elasticsearch.index.dic;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ByteBuffersDataInput;
+import org.apache.lucene.store.ByteBuffersIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.OutputStreamIndexOutput;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ * 远程词典的本地缓存：节点重启时先加载上次成功下载的词典，不依赖词典服务器
+ * <p>
+ * The last dictionary fetched from the remote location is kept in {@value #CACHE_FILE} in the directory set by
+ * {@link #configure(Path)}, together with the location it came from and its {@code ETag} and {@code Last-Modified}.
+ * It is one checksummed file, written to a temporary file that is synced and then moved over the old one, so a
+ * crash leaves either the old or the new dictionary behind. The compiled dictionary is mapped in place when it is
+ * restored. Without a directory nothing is cached.
+ */
+public final class DictionaryCache {
+
+    private static final Logger logger = ESPluginLoggerFactory.getLogger(DictionaryCache.class.getName());
+
+    public static final String CACHE_FILE = "remote.dic";
+
+    static final String CODEC_NAME = "pinyin_dictionary_cache";
+    static final int VERSION_START = 0;
+    static final int VERSION_CURRENT = VERSION_START;
+
+    private static volatile Path directory;
+
+    private DictionaryCache() {
+    }
+
+    /**
+     * the directory to keep the cache in, null to disable it
+     */
+    public static void configure(Path directory) {
+        DictionaryCache.directory = directory;
+    }
+
+    /**
+     * a dictionary restored from the cache, with the validators of the response it was fetched with
+     */
+    public static final class Entry {
+        public final PinyinDictionary dictionary;
+        public final String eTag;
+        public final String lastModified;
+
+        Entry(PinyinDictionary dictionary, String eTag, String lastModified) {
+            this.dictionary = dictionary;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * keep the dictionary fetched from the location, errors are logged only, the cache is best effort
+     */
+    public static void store(String location, String eTag, String lastModified, PinyinDictionary dictionary) {
+        Path dir = directory;
+        if (dir == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        Path temp = null;
+        try {
+            Files.createDirectories(dir);
+            temp = Files.createTempFile(dir, CACHE_FILE, ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp);
+                 IndexOutput output = new OutputStreamIndexOutput(CODEC_NAME, CODEC_NAME, out, 8192)) {
+                CodecUtil.writeHeader(output, CODEC_NAME, VERSION_CURRENT);
+                output.writeString(location);
+                output.writeString(eTag == null ? "" : eTag);
+                output.writeString(lastModified == null ? "" : lastModified);
+                output.writeVLong(dictionary.sizeInBytes());
+                dictionary.writeTo(output);
+                CodecUtil.writeFooter(output);
+            }
+            IOUtils.fsync(temp, false);
+            Files.move(temp, dir.resolve(CACHE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            IOUtils.fsync(dir, true);
+            logger.info("pinyin dictionary from {} cached in {}, took {} ms", location, dir, (System.nanoTime() - start) / 1000000);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("cache pinyin dictionary in " + dir + " error", e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * the dictionary last fetched from the location
+     *
+     * @return null if there is none, it came from another location or it can't be read
+     */
+    public static Entry restore(String location) {
+        Path dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        Path file = dir.resolve(CACHE_FILE);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            IndexInput in = new ByteBuffersIndexInput(new ByteBuffersDataInput(Collections.singletonList(buffer.duplicate())), file.toString());
+            CodecUtil.checksumEntireFile(in);
+            in.seek(0);
+            CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+            String cachedLocation = in.readString();
+            String eTag = in.readString();
+            String lastModified = in.readString();
+            long length = in.readVLong();
+            if (!cachedLocation.equals(location)) {
+                logger.info("cached pinyin dictionary is from {}, not {}, ignore it", cachedLocation, location);
+                return null;
+            }
+            ByteBuffer compiled = buffer.duplicate();
+            compiled.position((int) in.getFilePointer());
+            compiled.limit((int) (in.getFilePointer() + length));
+            PinyinDictionary dictionary = PinyinDictionary.open(compiled.slice(), file.toString());
+            logger.info("pinyin dictionary restored from {}, {} phrases, took {} ms", file, dictionary.phraseCount(), (System.nanoTime() - start) / 1000000);
+            return new Entry(dictionary, eTag.isEmpty() ? null : eTag, lastModified.isEmpty() ? null : lastModified);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("can't restore cached pinyin dictionary " + file + ", wait for the remote one", e);
+            return null;
+        }
+    }
+}
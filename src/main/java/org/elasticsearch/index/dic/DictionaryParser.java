@@ -0,0 +1,189 @@
+package org.elasticsearch.index.dic;
+
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 词典解析：把词典行分块后并行解析，再按原顺序合并
+ * <p>
+ * The lines are read on the calling thread, in chunks of {@value #CHUNK_SIZE}, and every full chunk is split into
+ * words and syllables on a small fork-join pool while the next one is read. The chunks are merged into the
+ * {@link PinyinDictionary.Builder} in input order on the calling thread, a later line replaces an earlier one just
+ * like when parsing line by line. At most {@link #PARALLELISM_SETTING} threads parse, and at most twice as many
+ * chunks are in flight, with a parallelism of 1 every chunk is parsed on the calling thread as soon as it is full.
+ * <p>
+ * Only splitting the lines is parallel. Merging the entries, which numbers the syllables and sorts the phrases, and
+ * building the tables and the phrase FST from the sorted phrases stay on the calling thread, the FST can only be
+ * built in order. A reload takes at least as long as those steps, however many threads parse.
+ * <p>
+ * The {@link DictionaryService} owns the parser of the node and closes
+ * it with the node, {@link #SEQUENTIAL} is for loading the bundled dictionary and for tools.
+ */
+public final class DictionaryParser implements Closeable {
+
+    //leave most processors to search and indexing
+    public static final Setting<Integer> PARALLELISM_SETTING = Setting.intSetting("pinyin.dictionary.parse_parallelism",
+            Math.min(4, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)), 1, Setting.Property.NodeScope);
+
+    static final int CHUNK_SIZE = 2048;
+
+    //parses on the calling thread, needs no closing
+    static final DictionaryParser SEQUENTIAL = new DictionaryParser(1);
+
+    private final int parallelism;
+    //started by the first parse, null before and once closed
+    private ForkJoinPool pool;
+    private boolean closed = false;
+
+    public DictionaryParser(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * a parser with the parallelism of the node settings
+     */
+    public DictionaryParser(Settings settings) {
+        this(PARALLELISM_SETTING.get(settings));
+    }
+
+    /**
+     * stop the pool, parsing in progress is finished, a later parse runs on the calling thread
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    //null if the lines are parsed on the calling thread
+    private synchronized ForkJoinPool pool() {
+        if (parallelism == 1 || closed) {
+            return null;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, p -> {
+                ForkJoinWorkerThread thread = new ForkJoinWorkerThread(p) {
+                };
+                thread.setName("pinyin-dictionary-parser-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * a word and the syllables of its chars, without tone
+     */
+    static final class Entry {
+        final String word;
+        final String[] syllables;
+
+        Entry(String word, String[] syllables) {
+            this.word = word;
+            this.syllables = syllables;
+        }
+    }
+
+    /**
+     * parse the lines and add the entries to the builder in input order
+     *
+     * @param parser    the entry of a line, null to skip it; called on the pool threads
+     * @param directive called on the calling thread for lines starting with {@code #}, which are not parsed
+     */
+    void parse(BufferedReader reader, Function<String, Entry> parser, Consumer<String> directive,
+               PinyinDictionary.Builder builder) throws IOException {
+        ForkJoinPool pool = pool();
+        int maxPending = pool == null ? 0 : parallelism * 2;
+        ArrayDeque<ForkJoinTask<List<Entry>>> pending = new ArrayDeque<>();
+        List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+        String line;
+        try {
+            while (null != (line = reader.readLine())) {
+                if (line.startsWith("#")) {
+                    directive.accept(line);
+                    continue;
+                }
+                if (line.length() == 0) {
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() < CHUNK_SIZE) {
+                    continue;
+                }
+                if (pool == null) {
+                    //only one chunk of lines is held at a time
+                    merge(parse(chunk, parser), builder);
+                    chunk.clear();
+                    continue;
+                }
+                List<String> lines = chunk;
+                pending.add(pool.submit(() -> parse(lines, parser)));
+                chunk = new ArrayList<>(CHUNK_SIZE);
+                if (pending.size() > maxPending) {
+                    merge(pending.poll().join(), builder);
+                }
+            }
+            while (!pending.isEmpty()) {
+                merge(pending.poll().join(), builder);
+            }
+        } finally {
+            for (ForkJoinTask<?> task : pending) {
+                task.cancel(false);
+            }
+        }
+        merge(parse(chunk, parser), builder);
+    }
+
+    private static List<Entry> parse(List<String> lines, Function<String, Entry> parser) {
+        List<Entry> entries = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            Entry entry = parser.apply(line);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static void merge(List<Entry> entries, PinyinDictionary.Builder builder) {
+        for (Entry entry : entries) {
+            builder.add(entry);
+        }
+    }
+
+    /**
+     * a reading like {@code zhong4} without its tone number
+     */
+    static String stripTone(String reading) {
+        int i = 0;
+        while (i < reading.length() && (reading.charAt(i) < '1' || reading.charAt(i) > '5')) {
+            i++;
+        }
+        if (i == reading.length()) {
+            return reading;
+        }
+        StringBuilder syllable = new StringBuilder(reading.length()).append(reading, 0, i);
+        for (; i < reading.length(); i++) {
+            char c = reading.charAt(i);
+            if (c < '1' || c > '5') {
+                syllable.append(c);
+            }
+        }
+        return syllable.toString();
+    }
+}
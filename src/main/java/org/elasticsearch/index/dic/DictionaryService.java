@@ -0,0 +1,278 @@
+package org.elasticsearch.index.dic;
+
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 词典服务：由插件创建并管理，负责监控远程或本地多音字文件
+ * <p>
+ * Owned by the plugin, started by the first analysis component that uses the dictionary and closed with the node.
+ * The polyphone file is given by {@link #LOCATION_SETTING}, or else by the first line of {@value #LOCATION_FILE} in
+ * the plugin directory, the change list url likewise by {@link #DELTA_LOCATION_SETTING} or the second line. A local
+ * file is watched by a {@link FileMonitor}, a remote one is restored from the {@link DictionaryCache} and then
+ * polled by a {@link Monitor} on a single daemon thread every {@link #POLL_INTERVAL_SETTING}. Without a location
+ * the bundled dictionary is used and nothing is started.
+ */
+public class DictionaryService implements Closeable {
+
+    private static final Logger logger = ESPluginLoggerFactory.getLogger(DictionaryService.class.getName());
+
+    public static final Setting<String> LOCATION_SETTING = Setting.simpleString("pinyin.dictionary.location", Setting.Property.NodeScope);
+    public static final Setting<String> DELTA_LOCATION_SETTING = Setting.simpleString("pinyin.dictionary.delta_location", Setting.Property.NodeScope);
+    //0 only checks once at startup, later checks are triggered by the reload endpoint
+    public static final Setting<TimeValue> POLL_INTERVAL_SETTING = Setting.timeSetting("pinyin.dictionary.poll_interval",
+            TimeValue.timeValueSeconds(60), TimeValue.ZERO, Setting.Property.NodeScope);
+
+    //放在插件目录下，第一行为多音字文件地址，第二行为可选的增量更新地址
+    public static final String LOCATION_FILE = "location.txt";
+
+    //节点启动后第一次检查远程文件前的等待时间
+    private static final long INITIAL_DELAY_SECONDS = 10;
+
+    private final Settings settings;
+    private final Path pluginDirectory;
+    private final Path configDirectory;
+    private final Path cacheDirectory;
+    //parses the files the monitors load, its pool is started by the first load
+    private final DictionaryParser parser;
+
+    private boolean started = false;
+    private boolean closed = false;
+    //轮询远程文件时的监控任务及其线程
+    private Monitor monitor;
+    private ScheduledExecutorService pool;
+    //监听本地文件时的监控任务及其线程
+    private FileMonitor fileMonitor;
+    private Thread watcher;
+
+    /**
+     * @param pluginDirectory where {@value #LOCATION_FILE} and relative local files are looked up
+     * @param configDirectory the other directory a local file may be in, null if only the plugin directory is allowed
+     * @param cacheDirectory  where the remote dictionary is cached, null to not cache it
+     */
+    public DictionaryService(Settings settings, Path pluginDirectory, Path configDirectory, Path cacheDirectory) {
+        this.settings = settings;
+        this.pluginDirectory = pluginDirectory;
+        this.configDirectory = configDirectory;
+        this.cacheDirectory = cacheDirectory;
+        this.parser = new DictionaryParser(settings);
+    }
+
+    /**
+     * the plugin directory is {@code plugins/pinyin}, local files may also be in the config directory, the cache is
+     * kept under the first data path
+     */
+    public DictionaryService(Settings settings, Environment environment) {
+        this(settings, pluginDirectory(environment), environment.configFile(), environment.dataFiles()[0].resolve("pinyin"));
+    }
+
+    /**
+     * {@code plugins/pinyin}, where {@value #LOCATION_FILE} and the compiled dictionary are
+     */
+    public static Path pluginDirectory(Environment environment) {
+        return environment.pluginsFile().resolve("pinyin");
+    }
+
+    /**
+     * start watching the dictionary source, only the first call does anything
+     */
+    public synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        SpecialPermission.check();
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            this.startUnprivileged();
+            return null;
+        });
+    }
+
+    private void startUnprivileged() {
+        String location = LOCATION_SETTING.get(settings);
+        String deltaLocation = DELTA_LOCATION_SETTING.get(settings);
+        Path file = pluginDirectory.resolve(LOCATION_FILE);
+        if (location.isEmpty() && Files.isRegularFile(file)) {
+            //读取插件目录下txt文件中的远程文件地址
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                location = trim(reader.readLine());
+                if (deltaLocation.isEmpty()) {
+                    deltaLocation = trim(reader.readLine());
+                }
+            } catch (IOException e) {
+                logger.error("read " + file + " error, use the bundled dictionary", e);
+                return;
+            }
+        }
+        if (location.isEmpty()) {
+            logger.info("no polyphone dictionary location configured, use the bundled dictionary");
+            return;
+        }
+        logger.info("try load config from {}, delta from {}", location, deltaLocation.isEmpty() ? null : deltaLocation);
+
+        Path local = localPath(location);
+        if (local != null) {
+            //插件只能读取配置目录和插件目录下的文件
+            if (!isReadable(local)) {
+                logger.error("local polyphone file {} is neither in the config directory {} nor in the plugin directory {}, use the bundled dictionary",
+                        local, configDirectory, pluginDirectory);
+                return;
+            }
+            //本地文件：监听文件系统事件，不再轮询
+            fileMonitor = new FileMonitor(local, parser);
+            watcher = fileMonitor.start();
+            return;
+        }
+
+        DictionaryCache.configure(cacheDirectory);
+        monitor = new Monitor(location, deltaLocation.isEmpty() ? null : deltaLocation, parser);
+        //先加载本地缓存的远程词典，启动不依赖词典服务器，之后在后台校验是否有更新
+        monitor.restore();
+        pool = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pinyin-dictionary-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = POLL_INTERVAL_SETTING.get(settings).millis();
+        if (interval > 0) {
+            pool.scheduleAtFixedRate(monitor, TimeUnit.SECONDS.toMillis(INITIAL_DELAY_SECONDS), interval, TimeUnit.MILLISECONDS);
+        } else {
+            pool.schedule(monitor, INITIAL_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String trim(String line) {
+        return line == null ? "" : line.trim();
+    }
+
+    /**
+     * check the dictionary source right now instead of waiting for the next poll, the same way the poll does: a
+     * remote file is only fetched if its {@code Last-Modified} or {@code ETag} changed, a local one only reloaded if
+     * its content did. A remote check runs on the monitor thread, so it never overlaps with a scheduled one. Returns
+     * once the check is over.
+     *
+     * @return whether a new dictionary is in use, false if nothing changed or no location is configured
+     * @throws IOException if the source can't be read or parsed, the current dictionary stays in use
+     */
+    public boolean reload() throws IOException, InterruptedException {
+        start();
+        FileMonitor fileMonitor;
+        Monitor monitor;
+        ScheduledExecutorService pool;
+        synchronized (this) {
+            fileMonitor = this.fileMonitor;
+            monitor = this.monitor;
+            pool = closed ? null : this.pool;
+        }
+        if (fileMonitor != null) {
+            SpecialPermission.check();
+            try {
+                return AccessController.doPrivileged((PrivilegedExceptionAction<Boolean>) fileMonitor::reloadIfChanged);
+            } catch (PrivilegedActionException e) {
+                throw (IOException) e.getException();
+            }
+        }
+        if (pool == null) {
+            return false;
+        }
+        try {
+            return pool.submit(monitor::check).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("check " + monitor + " error", e.getCause());
+        }
+    }
+
+    /**
+     * stop watching, a running check is interrupted, the dictionary in use stays
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (monitor != null) {
+            monitor.close();
+        }
+        parser.close();
+    }
+
+    /**
+     * whether the file, and the file it links to if it is a symlink, are in the plugin or config directory
+     */
+    private boolean isReadable(Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        if (!isInReadableDirectory(normalized)) {
+            return false;
+        }
+        try {
+            return isInReadableDirectory(normalized.toRealPath());
+        } catch (IOException e) {
+            //not there yet, the security policy still only lets the plugin read it if it ends up in one of them
+            return true;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    private boolean isInReadableDirectory(Path file) {
+        return file.startsWith(realPath(pluginDirectory)) || (configDirectory != null && file.startsWith(realPath(configDirectory)));
+    }
+
+    private static Path realPath(Path directory) {
+        Path normalized = directory.toAbsolutePath().normalize();
+        try {
+            return normalized.toRealPath();
+        } catch (IOException | SecurityException e) {
+            return normalized;
+        }
+    }
+
+    /**
+     * the file a location like {@code file:///etc/elasticsearch/polyphone.txt} or {@code /etc/elasticsearch/polyphone.txt}
+     * points to, relative paths are resolved against the plugin directory. Null for a remote location.
+     */
+    Path localPath(String location) {
+        location = location.trim();
+        if (location.startsWith("file:")) {
+            return Paths.get(URI.create(location));
+        }
+        if (location.contains("://")) {
+            return null;
+        }
+        return pluginDirectory.resolve(location);
+    }
+}
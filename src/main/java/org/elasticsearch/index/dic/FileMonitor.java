@@ -0,0 +1,186 @@
+package org.elasticsearch.index.dic;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.SpecialPermission;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监控本地多音字文件变动线程
+ * <p>
+ * Watches the directory of a local polyphone file with a {@link WatchService} instead of polling. A burst of
+ * events, like an editor or a config management tool writing the file in several steps, is folded into one reload
+ * once no event came for {@link #QUIET_PERIOD_MILLIS}, or {@link #MAX_DELAY_MILLIS} after the first event of a
+ * burst that does not stop, like a file that is appended to all the time. Any event in the directory leads to a
+ * check, so a symlink being swapped to a new file is caught as well, but the dictionary is only rebuilt if the
+ * content changed. When the file is a symlink, the directory of the file it links to is watched too, and watched
+ * anew whenever the link moves to another directory. It is built and published the same way as by the remote
+ * {@link Monitor}. When the directory is removed or can't be watched, it is watched again after a growing pause, and the
+ * file is checked once the watch is back.
+ */
+public class FileMonitor implements Runnable {
+
+    private static final Logger logger = ESPluginLoggerFactory.getLogger(FileMonitor.class.getName());
+
+    static final long QUIET_PERIOD_MILLIS = 200;
+    //longest wait for the quiet period after the first event of a burst
+    static final long MAX_DELAY_MILLIS = 5000;
+    //wait before watching a directory again that is gone or can't be watched, doubled up to MAX_BACKOFF_MILLIS
+    static final long MIN_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    private final Path file;
+    private final DictionaryParser parser;
+    //hash of the content last loaded
+    private final ContentHash contentHash = new ContentHash();
+
+    public FileMonitor(Path file, DictionaryParser parser) {
+        this.file = file.toAbsolutePath();
+        this.parser = parser;
+    }
+
+    /**
+     * watch the file on a daemon thread, it is loaded right away
+     */
+    public Thread start() {
+        Thread thread = new Thread(this, "pinyin-dictionary-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public void run() {
+        logger.info("监控本地文件 {}", file);
+        SpecialPermission.check();
+        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+            this.runUnprivileged();
+            return null;
+        });
+    }
+
+    private void runUnprivileged() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            try (WatchService watcher = file.getFileSystem().newWatchService()) {
+                register(file.getParent(), watcher);
+                Path target = targetDirectory();
+                if (target != null) {
+                    register(target, watcher);
+                }
+                backoff = MIN_BACKOFF_MILLIS;
+                //load once the directory is watched, so that no write in between is missed
+                reloadQuietly();
+                if (watch(watcher, target)) {
+                    logger.info("{} links to a file in another directory now, watch that one", file);
+                    continue;
+                }
+                logger.warn("directory of {} is gone, watch it again in {} ms", file, backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.info("stop watching {}", file);
+                return;
+            } catch (IOException e) {
+                logger.warn(new ParameterizedMessage("watch {} error, try again in {} ms", file, backoff), e);
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.info("stop watching {}", file);
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private static void register(Path directory, WatchService watcher) throws IOException {
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * the directory of the file the path links to, null if that is the directory of the path itself or the link
+     * can't be resolved
+     */
+    private Path targetDirectory() {
+        try {
+            Path target = file.toRealPath().getParent();
+            return target.equals(file.getParent().toRealPath()) ? null : target;
+        } catch (IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * reload after every burst of events, until a watch key becomes invalid or the file links to another directory
+     *
+     * @return true if the file links to another directory than target
+     */
+    private boolean watch(WatchService watcher, Path target) throws InterruptedException {
+        while (true) {
+            if (!drain(watcher.take())) {
+                return false;
+            }
+            //wait until the writes are over, but not forever
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+            WatchKey key;
+            while (System.nanoTime() - deadline < 0 && (key = watcher.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                if (!drain(key)) {
+                    return false;
+                }
+            }
+            reloadQuietly();
+            if (!Objects.equals(target, targetDirectory())) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean drain(WatchKey key) {
+        key.pollEvents();
+        return key.reset();
+    }
+
+    private void reloadQuietly() {
+        try {
+            reloadIfChanged();
+        } catch (NoSuchFileException e) {
+            logger.warn("{} does not exist, keep the current dic", file);
+        } catch (IOException | RuntimeException e) {
+            logger.error(new ParameterizedMessage("reload polyphone dic from {} error, keep the current one", file), e);
+        }
+    }
+
+    /**
+     * load the file if its content differs from the one loaded last, the current dictionary stays if it can't be
+     * read or parsed
+     *
+     * @return whether a new dictionary was published
+     */
+    synchronized boolean reloadIfChanged() throws IOException {
+        PinyinDictionary.Builder builder;
+        try (BufferedReader in = contentHash.reader(Files.newInputStream(file))) {
+            builder = PinyinDictionary.parse(in, parser);
+        }
+        if (contentHash.unchanged()) {
+            return false;
+        }
+
+        PinyinDictionary.setInstance(builder.build(file.toString()));
+        contentHash.accept();
+        logger.info("重新加载本地词典 {} 完毕！", file);
+        return true;
+    }
+}
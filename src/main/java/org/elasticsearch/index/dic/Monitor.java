@@ -2,34 +2,40 @@ package org.elasticsearch.index.dic;
 
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
 import org.elasticsearch.SpecialPermission;
-import org.nlpcn.commons.lang.pinyin.Pinyin;
-import org.nlpcn.commons.lang.tire.domain.SmartForest;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Date;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Objects;
 
 /**
 * @Description:    监控远程文件变动线程
 * @Author:         lxb
 * @CreateDate:     2019-05-28 14:22
 */
-public class Monitor implements Runnable {
+public class Monitor implements Runnable, Closeable {
 
     private static final Logger logger = ESPluginLoggerFactory.getLogger(Monitor.class.getName());
 
-    private static CloseableHttpClient httpclient = HttpClients.createDefault();
+    //连接池复用连接，请求带 Accept-Encoding: gzip,deflate，响应按 Content-Encoding 自动解压，close() 时关闭
+    private final CloseableHttpClient httpclient = HttpClients.custom()
+            .setDefaultRequestConfig(RequestConfig.custom().setConnectionRequestTimeout(10 * 1000)
+                    .setConnectTimeout(10 * 1000).setSocketTimeout(15 * 1000).build())
+            .setMaxConnPerRoute(2)
+            .setMaxConnTotal(4)
+            .build();
 
     public static final String EMPTY = "";
     public static final String SHARP = "#";
@@ -37,8 +43,6 @@ public class Monitor implements Runnable {
     public static final String COMMA = ",";
     public static final String SPACE = " ";
 
-    private SmartForest<String[]> polyphoneDict = null;
-
     private int maxLen = 2;
 
     /*
@@ -55,111 +59,164 @@ public class Monitor implements Runnable {
      */
     private String location;
 
-    public Monitor(String location) {
+    /*
+     * 增量更新地址，为空时每次都全量更新
+     */
+    private String deltaLocation;
+
+    /*
+     * 上次加载的远程文件内容的摘要
+     */
+    private final ContentHash contentHash = new ContentHash();
+
+    /*
+     * 解析远程文件的线程池，由词典服务管理
+     */
+    private final DictionaryParser parser;
+
+    public Monitor(String location, String deltaLocation, DictionaryParser parser) {
         this.location = location;
+        this.deltaLocation = deltaLocation;
+        this.parser = parser;
         this.last_modified = null;
         this.eTags = null;
     }
 
+    /**
+     * 加载上次从远程下载并缓存在本地的词典，节点启动时在访问网络之前调用，之后的请求带上缓存的 Last-Modified、ETags，
+     * 远程文件未变化时不再下载
+     *
+     * @return 是否从缓存加载了词典
+     */
+    public boolean restore() {
+        SpecialPermission.check();
+        DictionaryCache.Entry cached = AccessController.doPrivileged(
+                (PrivilegedAction<DictionaryCache.Entry>) () -> DictionaryCache.restore(location));
+        if (cached == null) {
+            return false;
+        }
+        PinyinDictionary.setInstance(cached.dictionary);
+        last_modified = cached.lastModified;
+        eTags = cached.eTag;
+        return true;
+    }
+
     public void run() {
         logger.info("监控文件请求线程启动！");
+        try {
+            check();
+        } catch (IOException | RuntimeException e) {
+            logger.error(new ParameterizedMessage("reload polyphone dic from {} error, keep the current one", location), e);
+        }
+    }
+
+    /**
+     * 检查一次远程文件，加载失败时继续使用旧词典
+     *
+     * @return 是否替换了词典
+     * @throws IOException 请求或解析失败
+     */
+    public boolean check() throws IOException {
         SpecialPermission.check();
-        AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-            this.runUnprivileged();
-            return null;
-        });
+        try {
+            return AccessController.doPrivileged((PrivilegedExceptionAction<Boolean>) this::runUnprivileged);
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
     }
 
     /**
      * 监控流程：
-     * ①向多音字字典存放服务器发送Head请求
-     * ②从响应中获取Last-Modify、ETags字段值，判断是否变化
-     * ③如果未变化，休眠1min，返回第①步
-     * ④如果有变化，重新加载词典
+     * ①有增量更新地址时，先请求当前版本之后的改动列表，没有改动或改动已应用时结束
+     * ②向多音字字典存放服务器发送带 If-None-Match、If-Modified-Since 的条件 GET 请求
+     * ③返回304时远程文件没有变化，结束
+     * ④返回200时边下载边解析并计算摘要，内容与上次加载的完全相同时丢弃解析结果，否则构建新词典并整体替换
      * ⑤休眠1min，返回第①步
      */
 
-    public void runUnprivileged() {
+    public boolean runUnprivileged() throws IOException {
+        PinyinDictionary current = PinyinDictionary.getInstance();
+        if (!applyPolyphoneDelta()) {
+            loadPolyphoneMapping();
+        }
+        return PinyinDictionary.getInstance() != current;
+    }
 
-        //超时设置
-        RequestConfig rc = RequestConfig.custom().setConnectionRequestTimeout(10 * 1000)
-                .setConnectTimeout(10 * 1000).setSocketTimeout(15 * 1000).build();
+    /**
+     * 增量更新多音字：请求 deltaLocation?from=当前版本，服务端返回该版本之后的改动列表，只把改动应用到当前词典的副本上，
+     * 格式见 {@link PinyinDictionary#applyDelta(BufferedReader)}
+     *
+     * @return 是否更新成功，为false时需要全量更新
+     */
+    boolean applyPolyphoneDelta() {
+        PinyinDictionary current = PinyinDictionary.getInstance();
+        if (deltaLocation == null || current.version() == PinyinDictionary.NO_VERSION) {
+            return false;
+        }
 
-        HttpHead head = new HttpHead(location);
-        // logger.info(">>>>>> 拼装head {}", head);
-        head.setConfig(rc);
+        HttpGet get = new HttpGet(deltaLocation + (deltaLocation.indexOf('?') < 0 ? "?" : "&") + "from=" + current.version());
+        try (CloseableHttpResponse response = httpclient.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == 204 || status == 304) {
+                //没有改动
+                return true;
+            }
+            if (status != 200 || response.getEntity() == null) {
+                logger.info("delta {} return code {}, reload the whole dic", deltaLocation, status);
+                return false;
+            }
+            PinyinDictionary updated;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8))) {
+                updated = current.applyDelta(in);
+            }
+            if (updated == null) {
+                return false;
+            }
+            PinyinDictionary.setInstance(updated);
+            //内容已不是上次下载的文件
+            contentHash.clear();
+            DictionaryCache.store(location, eTags, last_modified, updated);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error(new ParameterizedMessage("apply delta from {} error, reload the whole dic", deltaLocation), e);
+            return false;
+        }
+    }
 
+    /**
+     * 更新多音字文件：一次条件 GET 请求，响应体边下载边解析并计算摘要，内容变化时才构建，新词典在当前线程完整构建后一次性替换，加载失败时继续使用旧词典，
+     * 并保留旧的 Last-Modified、ETags，下次继续重试
+     *
+     * @return 是否构建了新词典，远程文件没有变化时为false
+     * @throws IOException 请求失败、返回码不是200或304时
+     */
+    public boolean loadPolyphoneMapping() throws IOException {
+        HttpGet get = new HttpGet(location);
         //设置请求头
         if (last_modified != null) {
-            head.setHeader("If-Modified-Since", last_modified);
+            get.setHeader("If-Modified-Since", last_modified);
         }
         if (eTags != null) {
-            head.setHeader("If-None-Match", eTags);
+            get.setHeader("If-None-Match", eTags);
         }
 
-        CloseableHttpResponse response = null;
-        try {
-
-            response = httpclient.execute(head);
-            logger.info("监控文件返回，response = " + response.toString());
-
-            //返回200 才做操作
-            if (response.getStatusLine().getStatusCode() == 200) {
-
-                // logger.info("last_modified is {}", response.getLastHeader("Last-Modified").getValue());
-                // logger.info("eTags is {}", response.getLastHeader("ETag").getValue());
-
-                if (((response.getLastHeader("Last-Modified") != null) && !response.getLastHeader("Last-Modified").getValue().equalsIgnoreCase(last_modified))
-                        || ((response.getLastHeader("ETag") != null) && !response.getLastHeader("ETag").getValue().equalsIgnoreCase(eTags))) {
-
-                    logger.info("远程词典有更新,需要重新加载词典!");
-                    // 远程词库有更新,需要重新加载词典，并修改last_modified,eTags
-                    loadPolyphoneMapping();
-
-                    last_modified = response.getLastHeader("Last-Modified") == null ? null : response.getLastHeader("Last-Modified").getValue();
-                    eTags = response.getLastHeader("ETag") == null ? null : response.getLastHeader("ETag").getValue();
-                }
-            } else if (response.getStatusLine().getStatusCode() == 304) {
+        try (CloseableHttpResponse response = httpclient.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == 304) {
                 //没有修改，不做操作
-                //noop
                 logger.info("远程词典没有改动，不执行热加载！");
-            } else {
-                logger.info("info-remote_ext_dict {} return bad code {}", location, response.getStatusLine().getStatusCode());
+                return false;
             }
-
-        } catch (Exception e) {
-            logger.error("error-remote_ext_dict {} error!", e, location);
-        } finally {
-            try {
-                if (response != null) {
-                    response.close();
-                }
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
+            if (status != 200 || response.getEntity() == null) {
+                throw new IOException("remote polyphone dic " + location + " return bad code " + status);
             }
-        }
-    }
-
-    /**
-     * 更新多音字文件
-     */
-    public void loadPolyphoneMapping() {
 
-        try {
             logger.info("重新加载词典中...");
-            URL url = new URL(location);
-
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(new BufferedInputStream(url.openStream()), StandardCharsets.UTF_8));
-
-            polyphoneDict = new SmartForest<>();
-
-            // logger.info("开始计时，当前时间为：{}" , new Date());
-            //todo 需要跟踪内存中清理及新加载情况  2019.6.4加入
-            //清楚内存中原有的拼音及多音字字典
-            Pinyin.clearPinyin();
-            //重新载入本地拼音字典和远程文件中的多音字字典，此处都采用全量更新载入
-            Pinyin.loadPolyphoneMappingForPinyin(in);
+            //响应体已按 Content-Encoding 解压，边下载边解析，同时按解压后的内容计算 SHA-256 摘要，不在内存中缓存整个响应体
+            PinyinDictionary.Builder builder;
+            try (BufferedReader in = contentHash.reader(response.getEntity().getContent())) {
+                builder = PinyinDictionary.parse(in, parser);
+            }
 
             //老代码，采用增量更新，但是维护麻烦
             /* String line;
@@ -182,15 +239,32 @@ public class Monitor implements Runnable {
 
             in.close();*/
 
-            // logger.info("结束计时，当前时间为：{}" , new Date());
-            logger.info("重新加载词典完毕！");
-
-        } catch (IOException e) {
-            e.printStackTrace();
+            String modified = response.getLastHeader("Last-Modified") == null ? null : response.getLastHeader("Last-Modified").getValue();
+            String tag = response.getLastHeader("ETag") == null ? null : response.getLastHeader("ETag").getValue();
+            boolean rebuilt = !contentHash.unchanged();
+            if (!rebuilt) {
+                //服务端不支持条件请求时，内容相同也会返回200，丢弃解析结果
+                logger.info("远程词典内容没有变化，不重新构建词典！");
+            } else {
+                //重新载入本地拼音字典和远程文件中的多音字字典，此处都采用全量更新载入，构建完成后整体替换
+                PinyinDictionary.setInstance(builder.build(location));
+                contentHash.accept();
+                logger.info("重新加载词典完毕！");
+            }
+            if (rebuilt || !Objects.equals(modified, last_modified) || !Objects.equals(tag, eTags)) {
+                last_modified = modified;
+                eTags = tag;
+                DictionaryCache.store(location, eTags, last_modified, PinyinDictionary.getInstance());
+            }
+            return rebuilt;
         }
-
     }
 
-
+    /**
+     * 关闭连接池
+     */
+    @Override
+    public void close() throws IOException {
+        httpclient.close();
+    }
 }
-
@@ -0,0 +1,854 @@
+package org.elasticsearch.index.dic;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ByteBuffersDataInput;
+import org.apache.lucene.store.ByteBuffersIndexInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.OutputStreamIndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.IntSequenceOutputs;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+import org.apache.lucene.util.fst.Util;
+import org.elasticsearch.SpecialPermission;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 拼音词典：汉字到拼音音节的直接查表
+ * <p>
+ * Every char is mapped to a syllable id by one read from a dense table over the BMP, code points of the
+ * supplementary CJK extension blocks use a second table. Syllables are stored once, without tone numbers, together
+ * with their first letter. The phrase dictionary is only consulted for chars flagged as the first char of a phrase,
+ * it is compiled into an {@link FST} from the phrase chars to the syllable ids of the phrase, a longest match is one
+ * walk over the input chars.
+ * <p>
+ * The dictionary is built from the same files as nlp-lang ({@code pinyin.txt} and {@code polyphone.txt}) and gives
+ * the same result as {@code Pinyin.pinyin}: phrases are matched leftmost longest, other chars get their first reading.
+ * Instances are immutable, a reload builds a new one and replaces {@link #getInstance()}.
+ * <p>
+ * The readings a char has in the polyphone phrases are kept as well, see {@link #readings(int, IntsRefBuilder)}, so
+ * they follow the polyphone dictionary when it is reloaded.
+ * <p>
+ * A polyphone file may carry a {@code #version=<n>} line, the version is kept with the dictionary so that small
+ * changes can be applied to a copy of it with {@link #applyDelta(BufferedReader)} instead of a full reload.
+ * <p>
+ * The tables and the FST are read in place from one buffer in a versioned binary format, see
+ * {@link PinyinDictionaryCompiler}. A compiled {@value #BINARY_DICTIONARY_FILE} in the plugin directory is memory
+ * mapped at startup, so nothing but the syllables lives on the heap; without it the text files are compiled into a
+ * heap buffer.
+ */
+public final class PinyinDictionary {
+
+    private static final Logger logger = ESPluginLoggerFactory.getLogger(PinyinDictionary.class.getName());
+
+    public static final String PINYIN_MAPPING_FILE = "/pinyin.txt";
+    public static final String POLYPHONE_MAPPING_FILE = "/polyphone.txt";
+
+    //编译好的词典放在插件目录 plugins/pinyin 下，见 configure(Path)
+    public static final String BINARY_DICTIONARY_FILE = "pinyin.dic";
+
+    static final String CODEC_NAME = "pinyin_dictionary";
+    static final int VERSION_START = 0;
+    //per char readings of polyphonic chars
+    static final int VERSION_READINGS = 1;
+    //version of the polyphone file
+    static final int VERSION_SOURCE = 2;
+    static final int VERSION_CURRENT = VERSION_SOURCE;
+
+    //the polyphone file has no version
+    public static final long NO_VERSION = -1;
+    static final String VERSION_LINE = "#version=";
+    static final String FROM_LINE = "#from=";
+
+    public static final int NO_SYLLABLE = -1;
+
+    private static final char PHRASE_START = 0x8000;
+    private static final char POLYPHONE = 0x4000;
+    private static final char SYLLABLE_MASK = 0x3FFF;
+    private static final int SUPPLEMENTARY_BASE = 0x20000;
+    private static final int SUPPLEMENTARY_SIZE = 0x10000;
+
+    private static volatile PinyinDictionary instance;
+    //where the compiled dictionary is looked up, null to only use the bundled one
+    private static volatile Path directory;
+    private static final List<Consumer<PinyinDictionary>> reloadListeners = new CopyOnWriteArrayList<>();
+
+    //syllable id -> syllable without tone, and its first letter
+    private final String[] syllables;
+    private final char[] firstLetters;
+
+    //the whole dictionary, the tables are read from it in place
+    private final ByteBuffer data;
+    //char -> syllable id + 1, 0 if the char has no reading, PHRASE_START if a phrase starts with this char,
+    //POLYPHONE if the char has more than one reading
+    private final int tableOffset;
+    //code point - SUPPLEMENTARY_BASE -> same as table, -1 if no such code point has a reading
+    private final int supplementaryOffset;
+    //sorted code points of the polyphonic chars, followed by where their readings start, followed by the readings
+    private final int polyphoneCount;
+    private final int polyphoneOffset;
+
+    //phrase chars -> syllable ids, null if there are no phrases
+    private final FST<IntsRef> phrases;
+    private final int phraseCount;
+    private final long version;
+
+    private PinyinDictionary(String[] syllables, ByteBuffer data, int tableOffset, int supplementaryOffset,
+                             int polyphoneCount, int polyphoneOffset, FST<IntsRef> phrases, int phraseCount, long version) {
+        this.syllables = syllables;
+        this.firstLetters = new char[syllables.length];
+        for (int i = 0; i < syllables.length; i++) {
+            firstLetters[i] = syllables[i].length() > 0 ? syllables[i].charAt(0) : 0;
+        }
+        this.data = data;
+        this.tableOffset = tableOffset;
+        this.supplementaryOffset = supplementaryOffset;
+        this.polyphoneCount = polyphoneCount;
+        this.polyphoneOffset = polyphoneOffset;
+        this.phrases = phrases;
+        this.phraseCount = phraseCount;
+        this.version = version;
+    }
+
+    /**
+     * the dictionary in use, the bundled one is loaded on first access
+     */
+    public static PinyinDictionary getInstance() {
+        if (instance == null) {
+            synchronized (PinyinDictionary.class) {
+                if (instance == null) {
+                    instance = loadDefault();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * publish a new snapshot, readers see either the old or the new one, never a partly built dictionary. Waits for
+     * a lazy first load in {@link #getInstance()}, so the bundled dictionary can't overwrite a reloaded one.
+     */
+    static synchronized void setInstance(PinyinDictionary dictionary) {
+        instance = dictionary;
+        for (Consumer<PinyinDictionary> listener : reloadListeners) {
+            listener.accept(dictionary);
+        }
+    }
+
+    /**
+     * be notified whenever the dictionary in use is replaced
+     */
+    public static void addReloadListener(Consumer<PinyinDictionary> listener) {
+        reloadListeners.add(listener);
+    }
+
+    /**
+     * the plugin directory to look up {@value #BINARY_DICTIONARY_FILE} in, before the first {@link #getInstance()}
+     */
+    public static void configure(Path pluginDirectory) {
+        directory = pluginDirectory;
+    }
+
+    /**
+     * the compiled dictionary in the plugin directory if there is one, the bundled chars and polyphone phrases otherwise
+     */
+    public static PinyinDictionary loadDefault() {
+        Path dir = directory;
+        Path compiled = dir == null ? null : dir.resolve(BINARY_DICTIONARY_FILE);
+        SpecialPermission.check();
+        PinyinDictionary mapped = AccessController.doPrivileged((PrivilegedAction<PinyinDictionary>) () -> {
+            if (compiled == null || !Files.isRegularFile(compiled)) {
+                return null;
+            }
+            try {
+                return map(compiled);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("can't load compiled pinyin dictionary " + compiled + ", fall back to the bundled one", e);
+                return null;
+            }
+        });
+        if (mapped != null) {
+            return mapped;
+        }
+
+        try (BufferedReader polyphone = openResource(POLYPHONE_MAPPING_FILE)) {
+            return load(polyphone);
+        } catch (IOException e) {
+            throw new RuntimeException("read pinyin dic error.", e);
+        }
+    }
+
+    /**
+     * the bundled chars with the given polyphone phrases, which replace the bundled ones, parsed on the calling thread
+     */
+    public static PinyinDictionary load(BufferedReader polyphone) throws IOException {
+        return load(polyphone, DictionaryParser.SEQUENTIAL);
+    }
+
+    /**
+     * the bundled chars with the given polyphone phrases, which replace the bundled ones
+     */
+    public static PinyinDictionary load(BufferedReader polyphone, DictionaryParser parser) throws IOException {
+        long start = System.nanoTime();
+        PinyinDictionary dictionary = parse(polyphone, parser).build("polyphone");
+        logger.info("pinyin dictionary loaded, {} phrases, took {} ms", dictionary.phraseCount, (System.nanoTime() - start) / 1000000);
+        return dictionary;
+    }
+
+    /**
+     * compile the bundled chars with the given polyphone phrases into the binary format
+     */
+    public static void compile(BufferedReader polyphone, OutputStream out) throws IOException {
+        parse(polyphone, DictionaryParser.SEQUENTIAL).write(out);
+    }
+
+    /**
+     * read the bundled chars and the given polyphone phrases line by line, nothing is built yet
+     */
+    static Builder parse(BufferedReader polyphone, DictionaryParser parser) throws IOException {
+        Builder builder = new Builder();
+        try (BufferedReader pinyin = openResource(PINYIN_MAPPING_FILE)) {
+            builder.addPinyinMapping(pinyin, parser);
+        }
+        builder.addPolyphoneMapping(polyphone, parser);
+        return builder;
+    }
+
+    /**
+     * map a compiled dictionary, it is read in place and stays off the heap
+     */
+    public static PinyinDictionary map(Path path) throws IOException {
+        long start = System.nanoTime();
+        PinyinDictionary dictionary;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            dictionary = open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+        }
+        logger.info("pinyin dictionary mapped from {}, {} phrases, took {} ms", path, dictionary.phraseCount, (System.nanoTime() - start) / 1000000);
+        return dictionary;
+    }
+
+    /**
+     * read a compiled dictionary, the checksum and the version are verified
+     */
+    static PinyinDictionary open(ByteBuffer buffer, String name) throws IOException {
+        IndexInput in = new ByteBuffersIndexInput(new ByteBuffersDataInput(Collections.singletonList(buffer.duplicate())), name);
+        CodecUtil.checksumEntireFile(in);
+        in.seek(0);
+        int format = CodecUtil.checkHeader(in, CODEC_NAME, VERSION_START, VERSION_CURRENT);
+        long version = format >= VERSION_SOURCE ? in.readLong() : NO_VERSION;
+
+        String[] syllables = new String[in.readVInt()];
+        for (int i = 0; i < syllables.length; i++) {
+            syllables[i] = in.readString();
+        }
+        int phraseCount = in.readVInt();
+        boolean hasSupplementary = in.readByte() != 0;
+
+        int tableOffset = (int) in.getFilePointer();
+        in.skipBytes((Character.MAX_VALUE + 1) * Character.BYTES);
+        int supplementaryOffset = -1;
+        if (hasSupplementary) {
+            supplementaryOffset = (int) in.getFilePointer();
+            in.skipBytes(SUPPLEMENTARY_SIZE * Character.BYTES);
+        }
+        int polyphoneCount = 0;
+        int polyphoneOffset = -1;
+        if (format >= VERSION_READINGS) {
+            polyphoneCount = in.readVInt();
+            int readingCount = in.readVInt();
+            polyphoneOffset = (int) in.getFilePointer();
+            in.skipBytes((polyphoneCount * 2L + 1) * Integer.BYTES + readingCount * Character.BYTES);
+        }
+
+        //the FST reads its bytes from the input, which must not move afterwards
+        FST<IntsRef> phrases = phraseCount == 0 ? null : new FST<>(in, IntSequenceOutputs.getSingleton(), new OffHeapFSTStore());
+        return new PinyinDictionary(syllables, buffer, tableOffset, supplementaryOffset, polyphoneCount, polyphoneOffset, phrases, phraseCount, version);
+    }
+
+    static BufferedReader openResource(String name) {
+        InputStream in = org.nlpcn.commons.lang.pinyin.Pinyin.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("can't find " + name + " in nlp-lang");
+        }
+        return new BufferedReader(new InputStreamReader(new BufferedInputStream(in), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * apply a change list of the polyphone phrases to a copy of this dictionary. The list starts with
+     * {@code #from=<n>}, the version it applies to, and {@code #version=<n>}, the version it leads to, followed by
+     * lines like {@code +参与=can1 yu4} to add or replace a phrase and {@code -参与} to remove one.
+     *
+     * @return the new dictionary, or null if the list does not apply to this version and a full reload is needed
+     */
+    public PinyinDictionary applyDelta(BufferedReader delta) throws IOException {
+        long start = System.nanoTime();
+        long from = NO_VERSION;
+        long to = NO_VERSION;
+        List<String> changes = new ArrayList<>();
+        String line;
+        while (null != (line = delta.readLine())) {
+            if (line.startsWith(FROM_LINE)) {
+                from = Long.parseLong(line.substring(FROM_LINE.length()).trim());
+            } else if (line.startsWith(VERSION_LINE)) {
+                to = Long.parseLong(line.substring(VERSION_LINE.length()).trim());
+            } else if (line.length() > 0 && !line.startsWith("#")) {
+                changes.add(line);
+            }
+        }
+        if (version == NO_VERSION || from != version || to == NO_VERSION) {
+            logger.info("pinyin dictionary delta from version {} to {} does not apply to version {}", from, to, version);
+            return null;
+        }
+
+        Builder builder = Builder.copyOf(this);
+        for (String change : changes) {
+            if (change.charAt(0) == '-') {
+                String word = change.substring(1);
+                //single chars come from pinyin.txt, a copy can't restore them
+                if (word.codePointCount(0, word.length()) == 1) {
+                    logger.info("pinyin dictionary delta removes the single char {}", word);
+                    return null;
+                }
+                builder.remove(word);
+            } else {
+                builder.addPolyphone(change.charAt(0) == '+' ? change.substring(1) : change);
+            }
+        }
+        builder.version = to;
+
+        PinyinDictionary dictionary = builder.build("polyphone delta");
+        logger.info("pinyin dictionary updated from version {} to {}, {} changes, took {} ms", from, to, changes.size(), (System.nanoTime() - start) / 1000000);
+        return dictionary;
+    }
+
+    /**
+     * the size of the compiled form, see {@link #writeTo(DataOutput)}
+     */
+    long sizeInBytes() {
+        return data.limit();
+    }
+
+    /**
+     * write the compiled form of this dictionary, as read by {@link #open(ByteBuffer, String)}
+     */
+    void writeTo(DataOutput out) throws IOException {
+        ByteBuffer bytes = data.duplicate();
+        bytes.position(0);
+        byte[] chunk = new byte[8192];
+        while (bytes.hasRemaining()) {
+            int length = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, length);
+            out.writeBytes(chunk, 0, length);
+        }
+    }
+
+    /**
+     * the version of the polyphone file, {@link #NO_VERSION} if it has none
+     */
+    public long version() {
+        return version;
+    }
+
+    public int phraseCount() {
+        return phraseCount;
+    }
+
+    public int syllableCount() {
+        return syllables.length;
+    }
+
+    public String syllable(int id) {
+        return syllables[id];
+    }
+
+    public char firstLetter(int id) {
+        return firstLetters[id];
+    }
+
+    /**
+     * the syllable id of a single char, without looking at phrases
+     */
+    public int lookup(char c) {
+        return (entry(c) & SYLLABLE_MASK) - 1;
+    }
+
+    /**
+     * the syllable id of a single code point, without looking at phrases
+     */
+    public int lookup(int codePoint) {
+        if (codePoint < SUPPLEMENTARY_BASE) {
+            return codePoint <= Character.MAX_VALUE ? lookup((char) codePoint) : NO_SYLLABLE;
+        }
+        if (supplementaryOffset < 0 || codePoint >= SUPPLEMENTARY_BASE + SUPPLEMENTARY_SIZE) {
+            return NO_SYLLABLE;
+        }
+        return (data.getChar(supplementaryOffset + (codePoint - SUPPLEMENTARY_BASE) * Character.BYTES) & SYLLABLE_MASK) - 1;
+    }
+
+    /**
+     * whether a phrase starts with this char
+     */
+    public boolean isPhraseStart(char c) {
+        return (entry(c) & PHRASE_START) != 0;
+    }
+
+    private char entry(char c) {
+        return data.getChar(tableOffset + c * Character.BYTES);
+    }
+
+    /**
+     * all readings a code point has in the polyphone phrases, its own reading first. Chars that are always read
+     * the same get that one reading, chars without reading none.
+     *
+     * @return the number of readings, written to ids
+     */
+    public int readings(int codePoint, IntsRefBuilder ids) {
+        ids.clear();
+        char entry;
+        if (codePoint <= Character.MAX_VALUE) {
+            entry = entry((char) codePoint);
+        } else if (supplementaryOffset >= 0 && codePoint >= SUPPLEMENTARY_BASE && codePoint < SUPPLEMENTARY_BASE + SUPPLEMENTARY_SIZE) {
+            entry = data.getChar(supplementaryOffset + (codePoint - SUPPLEMENTARY_BASE) * Character.BYTES);
+        } else {
+            return 0;
+        }
+        if ((entry & SYLLABLE_MASK) == 0) {
+            return 0;
+        }
+        if ((entry & POLYPHONE) == 0) {
+            ids.append((entry & SYLLABLE_MASK) - 1);
+            return 1;
+        }
+
+        //binary search the sorted code points
+        int low = 0;
+        int high = polyphoneCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midCodePoint = data.getInt(polyphoneOffset + mid * Integer.BYTES);
+            if (midCodePoint < codePoint) {
+                low = mid + 1;
+            } else if (midCodePoint > codePoint) {
+                high = mid - 1;
+            } else {
+                int starts = polyphoneOffset + polyphoneCount * Integer.BYTES;
+                int readings = starts + (polyphoneCount + 1) * Integer.BYTES;
+                int from = data.getInt(starts + mid * Integer.BYTES);
+                int to = data.getInt(starts + (mid + 1) * Integer.BYTES);
+                for (int i = from; i < to; i++) {
+                    ids.append(data.getChar(readings + i * Character.BYTES));
+                }
+                return ids.length();
+            }
+        }
+        //flagged but not listed, can't happen with a dictionary written by the builder
+        ids.append((entry & SYLLABLE_MASK) - 1);
+        return 1;
+    }
+
+    /**
+     * convert text[offset, offset + length) to one syllable id per char, {@link #NO_SYLLABLE} for chars without
+     * reading. For a supplementary code point the id goes to its high surrogate.
+     */
+    public void convert(CharSequence text, int offset, int length, int[] ids) {
+        convert(text, offset, length, ids, null);
+    }
+
+    /**
+     * like {@link #convert(CharSequence, int, int, int[])} with a matcher of {@link #phraseMatcher(PhraseMatcher)},
+     * so that converting many texts allocates nothing per text. Null to create one when the first phrase starts.
+     */
+    public void convert(CharSequence text, int offset, int length, int[] ids, PhraseMatcher matcher) {
+        if (matcher != null && matcher.dictionary() != this) {
+            throw new IllegalArgumentException("phrase matcher of another dictionary");
+        }
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            char c = text.charAt(i);
+            if ((entry(c) & PHRASE_START) != 0) {
+                if (matcher == null) {
+                    matcher = new PhraseMatcher();
+                }
+                int matched = matcher.match(text, i, end, ids, i - offset);
+                if (matched > 0) {
+                    i += matched;
+                    continue;
+                }
+            }
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                ids[i - offset] = lookup(Character.toCodePoint(c, text.charAt(i + 1)));
+                ids[i - offset + 1] = NO_SYLLABLE;
+                i += 2;
+                continue;
+            }
+            ids[i - offset] = lookup(c);
+            i++;
+        }
+    }
+
+    /**
+     * the given matcher if it belongs to this dictionary, otherwise a new one, null if the dictionary has no phrases
+     */
+    public PhraseMatcher phraseMatcher(PhraseMatcher reuse) {
+        if (phrases == null) {
+            return null;
+        }
+        return reuse != null && reuse.dictionary() == this ? reuse : new PhraseMatcher();
+    }
+
+    /**
+     * walks the phrase FST, the arc, reader and output scratch are reused for all phrases it matches. Belongs to
+     * one dictionary and is not thread safe.
+     */
+    public final class PhraseMatcher {
+        private final FST.Arc<IntsRef> arc = new FST.Arc<>();
+        private final FST.BytesReader reader = phrases.getBytesReader();
+        private int[] output = new int[8];
+
+        private PhraseMatcher() {
+        }
+
+        private PinyinDictionary dictionary() {
+            return PinyinDictionary.this;
+        }
+
+        /**
+         * longest phrase starting at text[start], its syllable ids are written to ids[idsOffset...]
+         *
+         * @return the length of the phrase, 0 if there is none
+         */
+        int match(CharSequence text, int start, int end, int[] ids, int idsOffset) {
+            int matched = 0;
+            int outputLength = 0;
+            try {
+                phrases.getFirstArc(arc);
+                for (int i = start; i < end; i++) {
+                    if (phrases.findTargetArc(text.charAt(i), arc, arc, reader) == null) {
+                        break;
+                    }
+                    outputLength = append(outputLength, arc.output);
+                    if (arc.isFinal()) {
+                        matched = i - start + 1;
+                        int readings = append(outputLength, arc.nextFinalOutput);
+                        for (int j = 0; j < matched; j++) {
+                            ids[idsOffset + j] = j < readings ? output[j] : NO_SYLLABLE;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                //the FST is read from a buffer, there is no real io
+                throw new IllegalStateException(e);
+            }
+            return matched;
+        }
+
+        /**
+         * append the ids to output[length...], without changing the length
+         *
+         * @return the length including the ids
+         */
+        private int append(int length, IntsRef ids) {
+            if (ids.length > 0) {
+                output = ArrayUtil.grow(output, length + ids.length);
+                System.arraycopy(ids.ints, ids.offset, output, length, ids.length);
+            }
+            return length + ids.length;
+        }
+    }
+
+    /**
+     * collects chars and phrases before building the tables
+     */
+    static final class Builder {
+        private final Map<String, Integer> syllableIds = new HashMap<>();
+        private final List<String> syllables = new ArrayList<>();
+        private final Map<Integer, Integer> chars = new HashMap<>();
+        //sorted by chars as the FST requires
+        private final Map<String, int[]> phrases = new TreeMap<>();
+        private long version = NO_VERSION;
+
+        /**
+         * a builder holding everything of the given dictionary, read back from its tables and phrase FST
+         */
+        static Builder copyOf(PinyinDictionary dictionary) throws IOException {
+            Builder builder = new Builder();
+            for (String syllable : dictionary.syllables) {
+                builder.syllableId(syllable);
+            }
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                int id = dictionary.lookup((char) c);
+                if (id != NO_SYLLABLE) {
+                    builder.chars.put(c, id);
+                }
+            }
+            if (dictionary.supplementaryOffset >= 0) {
+                for (int codePoint = SUPPLEMENTARY_BASE; codePoint < SUPPLEMENTARY_BASE + SUPPLEMENTARY_SIZE; codePoint++) {
+                    int id = dictionary.lookup(codePoint);
+                    if (id != NO_SYLLABLE) {
+                        builder.chars.put(codePoint, id);
+                    }
+                }
+            }
+            if (dictionary.phrases != null) {
+                IntsRefFSTEnum<IntsRef> phrases = new IntsRefFSTEnum<>(dictionary.phrases);
+                IntsRefFSTEnum.InputOutput<IntsRef> phrase;
+                while ((phrase = phrases.next()) != null) {
+                    char[] word = new char[phrase.input.length];
+                    for (int i = 0; i < word.length; i++) {
+                        word[i] = (char) phrase.input.ints[phrase.input.offset + i];
+                    }
+                    builder.phrases.put(new String(word),
+                        Arrays.copyOfRange(phrase.output.ints, phrase.output.offset, phrase.output.offset + phrase.output.length));
+                }
+            }
+            builder.version = dictionary.version;
+            return builder;
+        }
+
+        /**
+         * lines like {@code 丁=ding1,zheng1}, the first reading is used
+         */
+        void addPinyinMapping(BufferedReader reader, DictionaryParser parser) throws IOException {
+            parser.parse(reader, Builder::parsePinyin, line -> {
+            }, this);
+        }
+
+        /**
+         * lines like {@code 参与=can1 yu4}, one reading per char, and optionally the {@code #version=<n>} of the file
+         */
+        void addPolyphoneMapping(BufferedReader reader, DictionaryParser parser) throws IOException {
+            parser.parse(reader, Builder::parsePolyphone, line -> {
+                if (line.startsWith(VERSION_LINE)) {
+                    version = Long.parseLong(line.substring(VERSION_LINE.length()).trim());
+                }
+            }, this);
+        }
+
+        void addPolyphone(String line) {
+            DictionaryParser.Entry entry = parsePolyphone(line);
+            if (entry != null) {
+                add(entry);
+            }
+        }
+
+        void remove(String word) {
+            phrases.remove(word);
+        }
+
+        static DictionaryParser.Entry parsePinyin(String line) {
+            String[] pair = line.split("=");
+            if (pair.length == 2 && !isBlank(pair[1])) {
+                return entry(pair[0], pair[1].split(","));
+            }
+            return null;
+        }
+
+        static DictionaryParser.Entry parsePolyphone(String line) {
+            String[] pair = line.split("=");
+            if (pair.length >= 2) {
+                return entry(pair[0], pair[1].split(" "));
+            }
+            return null;
+        }
+
+        /**
+         * a single char keeps its first reading only
+         */
+        private static DictionaryParser.Entry entry(String word, String[] readings) {
+            if (word.length() == 0 || readings.length == 0) {
+                return null;
+            }
+            int count = word.codePointCount(0, word.length()) == 1 ? 1 : readings.length;
+            String[] syllables = new String[count];
+            for (int i = 0; i < count; i++) {
+                syllables[i] = DictionaryParser.stripTone(readings[i]);
+            }
+            return new DictionaryParser.Entry(word, syllables);
+        }
+
+        void add(DictionaryParser.Entry entry) {
+            String word = entry.word;
+            if (word.codePointCount(0, word.length()) == 1) {
+                chars.put(word.codePointAt(0), syllableId(entry.syllables[0]));
+            } else {
+                int[] ids = new int[entry.syllables.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = syllableId(entry.syllables[i]);
+                }
+                phrases.put(word, ids);
+            }
+        }
+
+        private int syllableId(String syllable) {
+            Integer id = syllableIds.get(syllable);
+            if (id == null) {
+                id = syllables.size();
+                if (id >= SYLLABLE_MASK) {
+                    throw new IllegalStateException("too many pinyin syllables");
+                }
+                syllables.add(syllable);
+                syllableIds.put(syllable, id);
+            }
+            return id;
+        }
+
+        /**
+         * compile into a heap buffer and read it back
+         */
+        PinyinDictionary build(String name) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(out);
+            return open(ByteBuffer.wrap(out.toByteArray()), name);
+        }
+
+        void write(OutputStream out) throws IOException {
+            try (IndexOutput output = new OutputStreamIndexOutput(CODEC_NAME, CODEC_NAME, out, 8192)) {
+                write(output);
+            }
+        }
+
+        /**
+         * write the dictionary in the binary format: codec header, polyphone file version, syllables, phrase count,
+         * supplementary flag, char table, supplementary table if flagged, readings of polyphonic chars, phrase FST if
+         * there are phrases, codec footer
+         */
+        void write(IndexOutput out) throws IOException {
+            char[] table = new char[Character.MAX_VALUE + 1];
+            char[] supplementaryTable = null;
+            for (Map.Entry<Integer, Integer> entry : chars.entrySet()) {
+                int codePoint = entry.getKey();
+                char value = (char) (entry.getValue() + 1);
+                if (codePoint < SUPPLEMENTARY_BASE) {
+                    if (codePoint < table.length) {
+                        table[codePoint] = value;
+                    }
+                } else if (codePoint < SUPPLEMENTARY_BASE + SUPPLEMENTARY_SIZE) {
+                    if (supplementaryTable == null) {
+                        supplementaryTable = new char[SUPPLEMENTARY_SIZE];
+                    }
+                    supplementaryTable[codePoint - SUPPLEMENTARY_BASE] = value;
+                }
+            }
+            //the readings of a char in the phrases, after its own reading
+            TreeMap<Integer, List<Integer>> polyphones = new TreeMap<>();
+            for (Map.Entry<String, int[]> phrase : phrases.entrySet()) {
+                String word = phrase.getKey();
+                int[] ids = phrase.getValue();
+                for (int i = 0, j = 0; i < word.length() && j < ids.length; i += Character.charCount(word.codePointAt(i)), j++) {
+                    int codePoint = word.codePointAt(i);
+                    Integer own = chars.get(codePoint);
+                    boolean inTable = codePoint <= Character.MAX_VALUE
+                        || (codePoint >= SUPPLEMENTARY_BASE && codePoint < SUPPLEMENTARY_BASE + SUPPLEMENTARY_SIZE);
+                    if (own == null || own == ids[j] || !inTable) {
+                        continue;
+                    }
+                    List<Integer> readings = polyphones.computeIfAbsent(codePoint, k -> new ArrayList<>(Collections.singletonList(own)));
+                    if (!readings.contains(ids[j])) {
+                        readings.add(ids[j]);
+                    }
+                }
+            }
+            int readingCount = 0;
+            for (Map.Entry<Integer, List<Integer>> polyphone : polyphones.entrySet()) {
+                int codePoint = polyphone.getKey();
+                if (codePoint < SUPPLEMENTARY_BASE) {
+                    table[codePoint] |= POLYPHONE;
+                } else {
+                    supplementaryTable[codePoint - SUPPLEMENTARY_BASE] |= POLYPHONE;
+                }
+                readingCount += polyphone.getValue().size();
+            }
+
+            FST<IntsRef> fst = null;
+            if (!phrases.isEmpty()) {
+                IntSequenceOutputs outputs = IntSequenceOutputs.getSingleton();
+                org.apache.lucene.util.fst.Builder<IntsRef> fstBuilder = new org.apache.lucene.util.fst.Builder<>(FST.INPUT_TYPE.BYTE2, outputs);
+                IntsRefBuilder input = new IntsRefBuilder();
+                for (Map.Entry<String, int[]> phrase : phrases.entrySet()) {
+                    table[phrase.getKey().charAt(0)] |= PHRASE_START;
+                    fstBuilder.add(Util.toUTF16(phrase.getKey(), input), new IntsRef(phrase.getValue(), 0, phrase.getValue().length));
+                }
+                fst = fstBuilder.finish();
+            }
+
+            CodecUtil.writeHeader(out, CODEC_NAME, VERSION_CURRENT);
+            out.writeLong(version);
+            out.writeVInt(syllables.size());
+            for (String syllable : syllables) {
+                out.writeString(syllable);
+            }
+            out.writeVInt(fst == null ? 0 : phrases.size());
+            out.writeByte((byte) (supplementaryTable == null ? 0 : 1));
+            writeChars(out, table);
+            if (supplementaryTable != null) {
+                writeChars(out, supplementaryTable);
+            }
+            out.writeVInt(polyphones.size());
+            out.writeVInt(readingCount);
+            for (int codePoint : polyphones.keySet()) {
+                out.writeInt(codePoint);
+            }
+            int start = 0;
+            for (List<Integer> readings : polyphones.values()) {
+                out.writeInt(start);
+                start += readings.size();
+            }
+            out.writeInt(start);
+            for (List<Integer> readings : polyphones.values()) {
+                for (int id : readings) {
+                    out.writeShort((short) id);
+                }
+            }
+            if (fst != null) {
+                fst.save(out);
+            }
+            CodecUtil.writeFooter(out);
+        }
+
+        private static void writeChars(IndexOutput out, char[] chars) throws IOException {
+            for (char c : chars) {
+                out.writeShort((short) c);
+            }
+        }
+
+        private static boolean isBlank(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (!Character.isWhitespace(s.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
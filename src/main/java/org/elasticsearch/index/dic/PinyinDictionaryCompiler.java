@@ -0,0 +1,53 @@
+package org.elasticsearch.index.dic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 词典编译工具：把拼音及多音字文本词典编译为插件可直接映射的二进制词典
+ * <p>
+ * Usage: {@code java -cp "plugins/pinyin/*" org.elasticsearch.index.dic.PinyinDictionaryCompiler <output> [polyphone file]},
+ * without a polyphone file the one bundled with nlp-lang is used. Put the output as
+ * {@value PinyinDictionary#BINARY_DICTIONARY_FILE} into the plugin directory to have it mapped at startup.
+ */
+public final class PinyinDictionaryCompiler {
+
+    private PinyinDictionaryCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: PinyinDictionaryCompiler <output> [polyphone file]");
+            System.exit(1);
+        }
+        Path output = Paths.get(args[0]);
+        Path polyphone = args.length > 1 ? Paths.get(args[1]) : null;
+        compile(polyphone, output);
+        System.out.println("compiled pinyin dictionary to " + output + ", " + Files.size(output) + " bytes");
+    }
+
+    /**
+     * compile the bundled chars with the given polyphone phrases, or the bundled ones if null. The output is written
+     * to a temporary file first, so a dictionary in use is never seen half written.
+     */
+    public static void compile(Path polyphone, Path output) throws IOException {
+        Path absolute = output.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedReader reader = polyphone == null ? PinyinDictionary.openResource(PinyinDictionary.POLYPHONE_MAPPING_FILE)
+                    : Files.newBufferedReader(polyphone, StandardCharsets.UTF_8);
+                 OutputStream out = Files.newOutputStream(temp)) {
+                PinyinDictionary.compile(reader, out);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
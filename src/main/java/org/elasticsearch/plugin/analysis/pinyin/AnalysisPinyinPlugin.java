@@ -2,35 +2,124 @@ package org.elasticsearch.plugin.analysis.pinyin;
 
 
 import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.index.analysis.*;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.dic.DictionaryParser;
+import org.elasticsearch.index.dic.DictionaryService;
+import org.elasticsearch.index.dic.PinyinDictionary;
 import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 
-public class AnalysisPinyinPlugin extends Plugin implements AnalysisPlugin {
+public class AnalysisPinyinPlugin extends Plugin implements AnalysisPlugin, ActionPlugin {
+
+    private final Settings settings;
+    //created with the node components, started by the first pinyin analysis component
+    private volatile DictionaryService dictionaryService;
+
+    public AnalysisPinyinPlugin(Settings settings) {
+        this.settings = settings;
+        ConversionCache.configure(settings);
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client, ClusterService clusterService, ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService, ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry, Environment environment,
+                                               NodeEnvironment nodeEnvironment, NamedWriteableRegistry namedWriteableRegistry) {
+        PinyinDictionary.configure(DictionaryService.pluginDirectory(environment));
+        //build the pinyin tables when the node starts rather than on the first analyzed text
+        PinyinDictionary.getInstance();
+        dictionaryService = new DictionaryService(settings, environment);
+        return Collections.singletonList(dictionaryService);
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return Arrays.asList(ConversionCache.SIZE_SETTING, DictionaryParser.PARALLELISM_SETTING, DictionaryService.LOCATION_SETTING,
+                DictionaryService.DELTA_LOCATION_SETTING, DictionaryService.POLL_INTERVAL_SETTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dictionaryService != null) {
+            dictionaryService.close();
+        }
+    }
+
+    /**
+     * start watching the dictionary once an index uses it
+     */
+    private <T> AnalysisModule.AnalysisProvider<T> startDictionary(AnalysisModule.AnalysisProvider<T> provider) {
+        return (indexSettings, environment, name, settings) -> {
+            if (dictionaryService != null) {
+                dictionaryService.start();
+            }
+            return provider.get(indexSettings, environment, name, settings);
+        };
+    }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenizerFactory>> getTokenizers() {
         Map<String, AnalysisModule.AnalysisProvider<TokenizerFactory>> extra = new HashMap<>();
-        extra.put("pinyin", PinyinTokenizerFactory::new);
-        extra.put("pinyin_first_letter", PinyinAbbreviationsTokenizerFactory::new);
+        extra.put("pinyin", startDictionary(PinyinTokenizerFactory::new));
+        extra.put("pinyin_first_letter", startDictionary(PinyinAbbreviationsTokenizerFactory::new));
         return extra;
     }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<org.elasticsearch.index.analysis.TokenFilterFactory>> getTokenFilters() {
         Map<String, AnalysisModule.AnalysisProvider<org.elasticsearch.index.analysis.TokenFilterFactory>> extra = new HashMap<>();
-        extra.put("pinyin", PinyinTokenFilterFactory::new);
+        extra.put("pinyin", startDictionary(PinyinTokenFilterFactory::new));
         return extra;
     }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<AnalyzerProvider<? extends Analyzer>>> getAnalyzers() {
-        return Collections.singletonMap("pinyin", PinyinAnalyzerProvider::new);
+        return Collections.singletonMap("pinyin", startDictionary(PinyinAnalyzerProvider::new));
+    }
+
+    @Override
+    public List<ActionHandler<? extends ActionRequest, ? extends ActionResponse>> getActions() {
+        return Arrays.asList(new ActionHandler<>(ReloadDictionaryAction.INSTANCE, TransportReloadDictionaryAction.class),
+                new ActionHandler<>(PinyinStatsAction.INSTANCE, TransportPinyinStatsAction.class));
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings, RestController restController, ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings, SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(new RestReloadDictionaryAction(settings, restController), new RestPinyinStatsAction(settings, restController));
     }
 }
@@ -0,0 +1,21 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.Action;
+
+/**
+ * 获取集群中各节点拼音转换缓存的统计信息
+ */
+public class PinyinStatsAction extends Action<PinyinStatsResponse> {
+
+    public static final PinyinStatsAction INSTANCE = new PinyinStatsAction();
+    public static final String NAME = "cluster:monitor/pinyin/stats";
+
+    private PinyinStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public PinyinStatsResponse newResponse() {
+        return new PinyinStatsResponse();
+    }
+}
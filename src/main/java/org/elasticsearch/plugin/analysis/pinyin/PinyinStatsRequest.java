@@ -0,0 +1,13 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * the nodes to get the stats of, all of them by default
+ */
+public class PinyinStatsRequest extends BaseNodesRequest<PinyinStatsRequest> {
+
+    public PinyinStatsRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,21 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.Action;
+
+/**
+ * 通知集群中所有节点立即检查多音字词典是否有更新
+ */
+public class ReloadDictionaryAction extends Action<ReloadDictionaryResponse> {
+
+    public static final ReloadDictionaryAction INSTANCE = new ReloadDictionaryAction();
+    public static final String NAME = "cluster:admin/pinyin/dictionary/reload";
+
+    private ReloadDictionaryAction() {
+        super(NAME);
+    }
+
+    @Override
+    public ReloadDictionaryResponse newResponse() {
+        return new ReloadDictionaryResponse();
+    }
+}
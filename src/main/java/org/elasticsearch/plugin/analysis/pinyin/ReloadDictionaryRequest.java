@@ -0,0 +1,13 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+/**
+ * the nodes to reload the dictionary on, all of them by default
+ */
+public class ReloadDictionaryRequest extends BaseNodesRequest<ReloadDictionaryRequest> {
+
+    public ReloadDictionaryRequest(String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,115 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * the dictionary every node ended up with
+ */
+public class ReloadDictionaryResponse extends BaseNodesResponse<ReloadDictionaryResponse.NodeResponse> implements ToXContentFragment {
+
+    public ReloadDictionaryResponse() {
+    }
+
+    public ReloadDictionaryResponse(ClusterName clusterName, List<NodeResponse> nodes, List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    protected List<NodeResponse> readNodesFrom(StreamInput in) throws IOException {
+        return in.readList(NodeResponse::readNodeResponse);
+    }
+
+    @Override
+    protected void writeNodesTo(StreamOutput out, List<NodeResponse> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("nodes");
+        for (NodeResponse node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            builder.field("name", node.getNode().getName());
+            builder.field("reloaded", node.reloaded);
+            builder.field("version", node.version);
+            builder.field("phrases", node.phrases);
+            builder.field("took_in_millis", node.tookInMillis);
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    public static class NodeResponse extends BaseNodeResponse {
+
+        //whether a new dictionary was published
+        private boolean reloaded;
+        //the version of the dictionary in use after the check
+        private long version;
+        private int phrases;
+        //how long the check and the load took
+        private long tookInMillis;
+
+        public NodeResponse() {
+        }
+
+        public NodeResponse(DiscoveryNode node, boolean reloaded, long version, int phrases, long tookInMillis) {
+            super(node);
+            this.reloaded = reloaded;
+            this.version = version;
+            this.phrases = phrases;
+            this.tookInMillis = tookInMillis;
+        }
+
+        public boolean reloaded() {
+            return reloaded;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public int phrases() {
+            return phrases;
+        }
+
+        public long tookInMillis() {
+            return tookInMillis;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            reloaded = in.readBoolean();
+            version = in.readLong();
+            phrases = in.readVInt();
+            tookInMillis = in.readVLong();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeBoolean(reloaded);
+            out.writeLong(version);
+            out.writeVInt(phrases);
+            out.writeVLong(tookInMillis);
+        }
+
+        public static NodeResponse readNodeResponse(StreamInput in) throws IOException {
+            NodeResponse node = new NodeResponse();
+            node.readFrom(in);
+            return node;
+        }
+    }
+}
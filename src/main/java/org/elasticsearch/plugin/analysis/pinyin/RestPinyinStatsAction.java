@@ -0,0 +1,33 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * {@code GET _pinyin/stats} and {@code GET _pinyin/{nodeId}/stats}
+ */
+public class RestPinyinStatsAction extends BaseRestHandler {
+
+    public RestPinyinStatsAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.GET, "/_pinyin/stats", this);
+        controller.registerHandler(RestRequest.Method.GET, "/_pinyin/{nodeId}/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "pinyin_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        PinyinStatsRequest statsRequest = new PinyinStatsRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        statsRequest.timeout(request.param("timeout"));
+        return channel -> client.execute(PinyinStatsAction.INSTANCE, statsRequest, new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
@@ -0,0 +1,33 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.action.RestActions;
+
+/**
+ * {@code POST _pinyin/dictionary/_reload} and {@code POST _pinyin/dictionary/{nodeId}/_reload}
+ */
+public class RestReloadDictionaryAction extends BaseRestHandler {
+
+    public RestReloadDictionaryAction(Settings settings, RestController controller) {
+        super(settings);
+        controller.registerHandler(RestRequest.Method.POST, "/_pinyin/dictionary/_reload", this);
+        controller.registerHandler(RestRequest.Method.POST, "/_pinyin/dictionary/{nodeId}/_reload", this);
+    }
+
+    @Override
+    public String getName() {
+        return "pinyin_dictionary_reload_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        ReloadDictionaryRequest reloadRequest = new ReloadDictionaryRequest(Strings.splitStringByCommaToArray(request.param("nodeId")));
+        reloadRequest.timeout(request.param("timeout"));
+        return channel -> client.execute(ReloadDictionaryAction.INSTANCE, reloadRequest, new RestActions.NodesResponseRestListener<>(channel));
+    }
+}
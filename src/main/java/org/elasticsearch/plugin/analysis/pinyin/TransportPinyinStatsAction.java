@@ -0,0 +1,60 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.index.analysis.ConversionCache;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.util.List;
+
+/**
+ * 每个节点返回节点级拼音转换缓存的命中、未命中和淘汰次数
+ */
+public class TransportPinyinStatsAction extends TransportNodesAction<PinyinStatsRequest, PinyinStatsResponse,
+        TransportPinyinStatsAction.NodeRequest, PinyinStatsResponse.NodeResponse> {
+
+    @Inject
+    public TransportPinyinStatsAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                      ActionFilters actionFilters) {
+        super(PinyinStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                PinyinStatsRequest::new, NodeRequest::new, ThreadPool.Names.MANAGEMENT, PinyinStatsResponse.NodeResponse.class);
+    }
+
+    @Override
+    protected PinyinStatsResponse newResponse(PinyinStatsRequest request, List<PinyinStatsResponse.NodeResponse> responses,
+                                              List<FailedNodeException> failures) {
+        return new PinyinStatsResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, PinyinStatsRequest request) {
+        return new NodeRequest(nodeId);
+    }
+
+    @Override
+    protected PinyinStatsResponse.NodeResponse newNodeResponse() {
+        return new PinyinStatsResponse.NodeResponse();
+    }
+
+    @Override
+    protected PinyinStatsResponse.NodeResponse nodeOperation(NodeRequest request) {
+        ConversionCache cache = ConversionCache.getInstance();
+        return new PinyinStatsResponse.NodeResponse(clusterService.localNode(), cache.count(), cache.hits(), cache.misses(),
+                cache.evictions());
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId) {
+            super(nodeId);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.index.dic.DictionaryService;
+import org.elasticsearch.index.dic.PinyinDictionary;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 每个节点立即检查一次多音字词典，不必等下一次轮询，返回检查后使用的词典版本，加载失败的节点在响应的 failures 中
+ */
+public class TransportReloadDictionaryAction extends TransportNodesAction<ReloadDictionaryRequest, ReloadDictionaryResponse,
+        TransportReloadDictionaryAction.NodeRequest, ReloadDictionaryResponse.NodeResponse> {
+
+    private final DictionaryService dictionaryService;
+
+    @Inject
+    public TransportReloadDictionaryAction(ThreadPool threadPool, ClusterService clusterService, TransportService transportService,
+                                           ActionFilters actionFilters, DictionaryService dictionaryService) {
+        super(ReloadDictionaryAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                ReloadDictionaryRequest::new, NodeRequest::new, ThreadPool.Names.GENERIC, ReloadDictionaryResponse.NodeResponse.class);
+        this.dictionaryService = dictionaryService;
+    }
+
+    @Override
+    protected ReloadDictionaryResponse newResponse(ReloadDictionaryRequest request, List<ReloadDictionaryResponse.NodeResponse> responses,
+                                                   List<FailedNodeException> failures) {
+        return new ReloadDictionaryResponse(clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected NodeRequest newNodeRequest(String nodeId, ReloadDictionaryRequest request) {
+        return new NodeRequest(nodeId);
+    }
+
+    @Override
+    protected ReloadDictionaryResponse.NodeResponse newNodeResponse() {
+        return new ReloadDictionaryResponse.NodeResponse();
+    }
+
+    @Override
+    protected ReloadDictionaryResponse.NodeResponse nodeOperation(NodeRequest request) {
+        long start = System.nanoTime();
+        boolean reloaded;
+        try {
+            reloaded = dictionaryService.reload();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("interrupted while reloading the pinyin dictionary", e);
+        } catch (IOException e) {
+            //reported as a failed node, the node keeps the dictionary it had
+            throw new ElasticsearchException("reload pinyin dictionary error", e);
+        }
+        PinyinDictionary current = PinyinDictionary.getInstance();
+        return new ReloadDictionaryResponse.NodeResponse(clusterService.localNode(), reloaded, current.version(),
+                current.phraseCount(), (System.nanoTime() - start) / 1000000);
+    }
+
+    public static class NodeRequest extends BaseNodeRequest {
+
+        public NodeRequest() {
+        }
+
+        NodeRequest(String nodeId) {
+            super(nodeId);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.elasticsearch.index.analysis;
+
+import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.index.dic.PinyinDictionary;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+public class CandidateBufferTest {
+
+    @Test
+    public void order() {
+        CandidateBuffer buffer = new CandidateBuffer();
+        buffer.append("Liu ", 0, 1, 2, true, true);
+        buffer.enqueue();
+        buffer.append('D', 1, 2, 1, true, true);
+        buffer.enqueue();
+        buffer.append("de", 1, 2, 1, true, true);
+        buffer.enqueue();
+        Assert.assertEquals(-1, buffer.append("  ", 0, 0, 1, true, true));
+
+        int i = buffer.poll();
+        Assert.assertEquals("d", new String(buffer.chars(), buffer.termOffset(i), buffer.termLength(i)));
+        i = buffer.poll();
+        Assert.assertEquals("de", new String(buffer.chars(), buffer.termOffset(i), buffer.termLength(i)));
+        i = buffer.poll();
+        Assert.assertEquals("liu", new String(buffer.chars(), buffer.termOffset(i), buffer.termLength(i)));
+        Assert.assertEquals(0, buffer.startOffset(i));
+        Assert.assertEquals(1, buffer.endOffset(i));
+        Assert.assertEquals(2, buffer.position(i));
+        Assert.assertFalse(buffer.hasPending());
+    }
+
+    @Test
+    public void noAllocationInSteadyState() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+
+        PinyinConfig config = new PinyinConfig();
+        config.keepSeparateFirstLetter = true;
+        config.keepJoinedFullPinyin = true;
+        config.keepOriginal = true;
+        config.ignorePinyinOffset = false;
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        //phrases, polyphonic chars and none chinese chars
+        String text = "重庆银行行长参与了长江大桥的建设 liudehua2016 刘德华";
+        int rounds = 1000;
+        Reader[] readers = new Reader[2 * rounds];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new StringReader(text);
+        }
+        //warm up, let the arrays grow to their final size
+        tokenize(tokenizer, readers, 0, rounds);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        long tokens = tokenize(tokenizer, readers, rounds, rounds);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        //what can't be avoided per input: the copy of the input into a String, and the outputs the phrase FST
+        //decodes while it is walked
+        PinyinDictionary dictionary = PinyinDictionary.getInstance();
+        PinyinDictionary.PhraseMatcher matcher = dictionary.phraseMatcher(null);
+        int[] syllables = new int[text.length()];
+        char[] chars = text.toCharArray();
+        before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int round = 0; round < rounds; round++) {
+            dictionary.convert(new String(chars), 0, chars.length, syllables, matcher);
+        }
+        long unavoidable = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        Assert.assertTrue("allocated " + allocated + " bytes for " + tokens + " tokens, " + unavoidable + " bytes unavoidable",
+                allocated - unavoidable < tokens);
+    }
+
+    private long tokenize(PinyinTokenizer tokenizer, Reader[] readers, int from, int rounds) throws IOException {
+        long tokens = 0;
+        for (int round = from; round < from + rounds; round++) {
+            tokenizer.setReader(readers[round]);
+            tokenizer.reset();
+            while (tokenizer.incrementToken()) {
+                tokens++;
+            }
+            tokenizer.end();
+            tokenizer.close();
+        }
+        return tokens;
+    }
+}
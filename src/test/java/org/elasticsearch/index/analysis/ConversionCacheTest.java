@@ -0,0 +1,36 @@
+package org.elasticsearch.index.analysis;
+
+import org.elasticsearch.analysis.PinyinConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+
+public class ConversionCacheTest {
+
+    //options that don't change the tokens of a value
+    private static final List<String> NOT_IN_ID = Arrays.asList("conversionCache", "queryCacheSize", "queryCacheTtl");
+
+    @Test
+    public void configId() throws Exception {
+        int id = ConversionCache.configId(new PinyinConfig(), 0);
+        Assert.assertEquals(id, ConversionCache.configId(new PinyinConfig(), 0));
+        Assert.assertTrue(id != ConversionCache.configId(new PinyinConfig(), 1));
+
+        //every other option is part of the id
+        for (Field field : PinyinConfig.class.getFields()) {
+            PinyinConfig config = new PinyinConfig();
+            if (field.getType() == boolean.class) {
+                field.setBoolean(config, !field.getBoolean(config));
+            } else if (field.getType() == int.class) {
+                field.setInt(config, field.getInt(config) + 1);
+            } else {
+                Assert.assertTrue(field.getName(), NOT_IN_ID.contains(field.getName()));
+                continue;
+            }
+            Assert.assertEquals(field.getName(), NOT_IN_ID.contains(field.getName()), id == ConversionCache.configId(config, 0));
+        }
+    }
+}
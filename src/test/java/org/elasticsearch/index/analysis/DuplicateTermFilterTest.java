@@ -0,0 +1,100 @@
+package org.elasticsearch.index.analysis;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class DuplicateTermFilterTest {
+
+    @Test
+    public void hashCollisions() {
+        //"Aa" and "BB" have the same hash, so they land in the same slot
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        DuplicateTermFilter filter = new DuplicateTermFilter(false);
+        Assert.assertTrue(add(filter, "Aa", 1));
+        Assert.assertTrue(add(filter, "BB", 1));
+        Assert.assertTrue(add(filter, "AaAa", 1));
+        Assert.assertTrue(add(filter, "BBBB", 1));
+        Assert.assertTrue(add(filter, "AaBB", 1));
+        Assert.assertFalse(add(filter, "Aa", 1));
+        Assert.assertFalse(add(filter, "BB", 1));
+        Assert.assertFalse(add(filter, "AaBB", 1));
+        Assert.assertTrue(add(filter, "BBAa", 1));
+        //same term at another position
+        Assert.assertTrue(add(filter, "BB", 2));
+        Assert.assertFalse(add(filter, "BB", 2));
+
+        //positions are ignored
+        filter = new DuplicateTermFilter(true);
+        Assert.assertTrue(add(filter, "Aa", 1));
+        Assert.assertTrue(add(filter, "BB", 2));
+        Assert.assertFalse(add(filter, "Aa", 3));
+        Assert.assertFalse(add(filter, "BB", 1));
+    }
+
+    @Test
+    public void growth() {
+        DuplicateTermFilter filter = new DuplicateTermFilter(false);
+        //far more terms than the initial 64 slots hold at a load factor of 0.5
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(add(filter, "t" + i, i % 7));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertFalse(add(filter, "t" + i, i % 7));
+            Assert.assertTrue(add(filter, "t" + i, 7));
+        }
+    }
+
+    @Test
+    public void clearBetweenValues() {
+        DuplicateTermFilter filter = new DuplicateTermFilter(false);
+        Assert.assertTrue(add(filter, "liu", 1));
+        Assert.assertFalse(add(filter, "liu", 1));
+        filter.clear();
+        Assert.assertTrue(add(filter, "liu", 1));
+
+        //clear after the table grew only resets the slots in use, which must be the current ones
+        for (int i = 0; i < 500; i++) {
+            Assert.assertTrue(add(filter, "t" + i, 1));
+        }
+        filter.clear();
+        for (int i = 0; i < 500; i++) {
+            Assert.assertTrue(add(filter, "t" + i, 1));
+        }
+        Assert.assertFalse(add(filter, "t0", 1));
+        Assert.assertTrue(add(filter, "liu", 1));
+    }
+
+    @Test
+    public void sameAsHashSet() {
+        Random random = new Random(42);
+        for (boolean ignorePosition : new boolean[]{false, true}) {
+            DuplicateTermFilter filter = new DuplicateTermFilter(ignorePosition);
+            for (int value = 0; value < 50; value++) {
+                Set<String> seen = new HashSet<>();
+                int terms = random.nextInt(300);
+                for (int i = 0; i < terms; i++) {
+                    //short terms over a small alphabet, so many of them repeat
+                    char[] term = new char[1 + random.nextInt(3)];
+                    for (int c = 0; c < term.length; c++) {
+                        term[c] = "AaBb".charAt(random.nextInt(4));
+                    }
+                    int pos = random.nextInt(4);
+                    String key = ignorePosition ? new String(term) : new String(term) + "/" + pos;
+                    //the term is passed in the middle of a larger buffer
+                    char[] buffer = new char[term.length + 4];
+                    System.arraycopy(term, 0, buffer, 2, term.length);
+                    Assert.assertEquals(key, seen.add(key), filter.add(buffer, 2, term.length, pos));
+                }
+                filter.clear();
+            }
+        }
+    }
+
+    private static boolean add(DuplicateTermFilter filter, String term, int pos) {
+        return filter.add(term.toCharArray(), 0, term.length(), pos);
+    }
+}
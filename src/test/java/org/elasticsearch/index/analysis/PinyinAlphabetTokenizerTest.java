@@ -27,4 +27,36 @@ public class PinyinAlphabetTokenizerTest {
                 PinyinAlphabetTokenizer.walk("5zhonghuaren89mingongheguo234").toString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void fewestPieces() {
+        PinyinAlphabetDict dict = PinyinAlphabetDict.getInstance();
+        char[] text = "1zhuang1".toCharArray();
+        //z, zh, zhu, zhua, zhuan, zhuang
+        Assert.assertEquals(0b1111110, dict.matchLengths(text, 1, text.length));
+        Assert.assertEquals(0b0011110, dict.matchLengths(text, 1, 5));
+        Assert.assertEquals(0, dict.matchLengths(text, 0, text.length));
+        Assert.assertTrue(dict.match("zhuang"));
+        Assert.assertFalse(dict.match("zhuan g"));
+        Assert.assertFalse(dict.match(""));
+
+        //forward and backward maximum matching both give cen,i,an,v,xie
+        Assert.assertEquals(Arrays.asList("ce", "nian", "v", "xie").toString(), PinyinAlphabetTokenizer.walk("cenianvxie").toString());
+        //of equal splits the longer syllable comes first
+        Assert.assertEquals(Arrays.asList("zhen", "an", "guo").toString(), PinyinAlphabetTokenizer.walk("zhenanguo").toString());
+        Assert.assertEquals(Arrays.asList("12,3").toString(), PinyinAlphabetTokenizer.walk("12,3").toString());
+    }
+
+    @Test
+    public void splitRange() {
+        PinyinAlphabetTokenizer tokenizer = new PinyinAlphabetTokenizer();
+        char[] text = "##LiuDeHua2016##".toCharArray();
+        int pieces = tokenizer.split(text, 2, 12);
+        Assert.assertEquals(4, pieces);
+        Assert.assertArrayEquals(new int[]{2, 5, 7, 10, 14}, Arrays.copyOf(tokenizer.boundaries(), pieces + 1));
+
+        Assert.assertEquals(0, tokenizer.split(text, 3, 0));
+        Assert.assertEquals(1, tokenizer.split(text, 0, 2));
+        Assert.assertArrayEquals(new int[]{0, 2}, Arrays.copyOf(tokenizer.boundaries(), 2));
+    }
+
+}
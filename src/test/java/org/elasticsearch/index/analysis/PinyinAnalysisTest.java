@@ -21,13 +21,16 @@ package org.elasticsearch.index.analysis;
 
 import junit.framework.Assert;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.index.dic.CharNormalizer;
 import org.junit.Test;
 import org.nlpcn.commons.lang.pinyin.Pinyin;
 
@@ -224,9 +227,9 @@ public class PinyinAnalysisTest {
         Assert.assertEquals("hua", pinyin.get(3));
         Assert.assertEquals("m", pinyin.get(4));
         Assert.assertEquals("ming", pinyin.get(5));
-        Assert.assertEquals("z", pinyin.get(6));
-        Assert.assertEquals("zi", pinyin.get(7));
-        Assert.assertEquals("mz", pinyin.get(8));
+        Assert.assertEquals("mz", pinyin.get(6));
+        Assert.assertEquals("z", pinyin.get(7));
+        Assert.assertEquals("zi", pinyin.get(8));
 
 
         config = new PinyinConfig();
@@ -1391,4 +1394,335 @@ public class PinyinAnalysisTest {
 
 
     }
+
+    @Test
+    public void TestStreamingTokenizer() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("刘德华 张学友，郭富城 liudehua2016 ");
+        }
+        String[] s ={ sb.toString()};
+
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepSeparateFirstLetter = true;
+        config.keepNoneChinese = true;
+        config.keepOriginal = false;
+        config.keepFullPinyin = true;
+        config.keepNoneChineseTogether = true;
+        config.ignorePinyinOffset = false;
+
+        ArrayList<TermItem> expected = getStringArrayListHashMap(s, config).get(s[0]);
+
+        config.streamWindowSize = 16;
+        ArrayList<TermItem> re = getStringArrayListHashMap(s, config).get(s[0]);
+
+        Assert.assertEquals(expected.size(), re.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).term, re.get(i).term);
+            Assert.assertEquals(expected.get(i).startOffset, re.get(i).startOffset);
+            Assert.assertEquals(expected.get(i).endOffset, re.get(i).endOffset);
+            Assert.assertEquals(expected.get(i).position, re.get(i).position);
+        }
+
+        //whole input terms are kept for every window
+        config.keepOriginal = true;
+        config.keepFirstLetter = true;
+        config.keepSeparateFirstLetter = false;
+        config.keepFullPinyin = false;
+        config.keepNoneChinese = false;
+        config.streamWindowSize = 5;
+        re = getStringArrayListHashMap(new String[]{"刘德华 张学友"}, config).get("刘德华 张学友");
+        Assert.assertEquals(4, re.size());
+        Assert.assertEquals("刘德华", re.get(0).term);
+        Assert.assertEquals(0, re.get(0).startOffset);
+        Assert.assertEquals(4, re.get(0).endOffset);
+        Assert.assertEquals(1, re.get(0).position);
+        Assert.assertEquals("ldh", re.get(1).term);
+        Assert.assertEquals(1, re.get(1).position);
+        Assert.assertEquals("张学友", re.get(2).term);
+        Assert.assertEquals(4, re.get(2).startOffset);
+        Assert.assertEquals(7, re.get(2).endOffset);
+        Assert.assertEquals(4, re.get(2).position);
+        Assert.assertEquals("zxy", re.get(3).term);
+        Assert.assertEquals(4, re.get(3).position);
+    }
+
+    @Test
+    public void TestStreamingNoneChineseApart() throws IOException {
+        //none chinese chars kept apart are positioned by their offset in the whole input, not in the window
+        StringBuilder sb = new StringBuilder("刘德华 张学友，");
+        for (int i = 0; i < 20; i++) {
+            sb.append("liudehua 2016 ");
+        }
+        String[] s = {sb.toString(), "ldh 2016 zxy 1961 gfc 1965 lm 1961"};
+
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepNoneChinese = true;
+        config.keepOriginal = false;
+        config.keepFullPinyin = true;
+        config.keepNoneChineseTogether = false;
+        config.ignorePinyinOffset = false;
+
+        HashMap<String, ArrayList<TermItem>> expected = getStringArrayListHashMap(s, config);
+
+        config.streamWindowSize = 16;
+        HashMap<String, ArrayList<TermItem>> re = getStringArrayListHashMap(s, config);
+
+        for (String text : s) {
+            Assert.assertEquals(expected.get(text).size(), re.get(text).size());
+            for (int i = 0; i < expected.get(text).size(); i++) {
+                Assert.assertEquals(expected.get(text).get(i).term, re.get(text).get(i).term);
+                Assert.assertEquals(expected.get(text).get(i).startOffset, re.get(text).get(i).startOffset);
+                Assert.assertEquals(expected.get(text).get(i).endOffset, re.get(text).get(i).endOffset);
+                Assert.assertEquals(expected.get(text).get(i).position, re.get(text).get(i).position);
+            }
+        }
+    }
+
+    @Test
+    public void TestConversionCache() throws IOException {
+        String[] s = {"刘德华", "liudehua刘德华2016", "银行行长", "刘德华"};
+
+        PinyinConfig config = new PinyinConfig();
+        config.keepOriginal = true;
+        config.keepJoinedFullPinyin = true;
+        config.ignorePinyinOffset = false;
+        HashMap<String, ArrayList<TermItem>> expected = getStringArrayListHashMap(s, config);
+
+        config.conversionCache = true;
+        ConversionCache cache = ConversionCache.getInstance();
+        cache.invalidateAll();
+        long hits = cache.hits();
+        for (int round = 0; round < 2; round++) {
+            HashMap<String, ArrayList<TermItem>> re = getStringArrayListHashMap(s, config);
+            for (String value : s) {
+                Assert.assertEquals(expected.get(value).size(), re.get(value).size());
+                for (int i = 0; i < expected.get(value).size(); i++) {
+                    Assert.assertEquals(expected.get(value).get(i).term, re.get(value).get(i).term);
+                    Assert.assertEquals(expected.get(value).get(i).startOffset, re.get(value).get(i).startOffset);
+                    Assert.assertEquals(expected.get(value).get(i).endOffset, re.get(value).get(i).endOffset);
+                    Assert.assertEquals(expected.get(value).get(i).position, re.get(value).get(i).position);
+                }
+            }
+        }
+        //the repeated value in the first round, and all values in the second
+        Assert.assertEquals(5, cache.hits() - hits);
+        Assert.assertEquals(3, cache.count());
+    }
+
+    @Test
+    public void TestQueryCache() throws IOException {
+        PinyinConfig config = new PinyinConfig();
+        config.queryCacheSize = 100;
+        PinyinAnalyzer cached = new PinyinAnalyzer(config);
+        PinyinAnalyzer plain = new PinyinAnalyzer(new PinyinConfig());
+
+        for (int round = 0; round < 3; round++) {
+            for (String query : new String[]{"liu", "ldh", "刘德", "刘德华"}) {
+                Assert.assertEquals(analyze(plain, query), analyze(cached, query));
+            }
+        }
+        Assert.assertEquals(4, cached.getQueryCache().count());
+        Assert.assertEquals(8, cached.getQueryCache().hits());
+        Assert.assertNull(plain.getQueryCache());
+    }
+
+    @Test
+    public void TestFirstLetterTokenizer() throws IOException {
+        String[] s = {"刘德华", "银行行长", "liudehua刘德华2016", " DJ音乐家 ", "β-氨基酸尿", "   ", ""};
+        for (int limit : new int[]{0, 3}) {
+            for (boolean keepNoneChinese : new boolean[]{true, false}) {
+                PinyinConfig config = new PinyinConfig();
+                config.keepFirstLetter = true;
+                config.keepFullPinyin = false;
+                config.keepNoneChinese = false;
+                config.keepNoneChineseTogether = true;
+                config.noneChinesePinyinTokenize = false;
+                config.keepOriginal = false;
+                config.keepNoneChineseInFirstLetter = keepNoneChinese;
+                config.LimitFirstLetterLength = limit;
+
+                for (String text : s) {
+                    PinyinTokenizer expected = new PinyinTokenizer(config);
+                    expected.setReader(new StringReader(text));
+                    PinyinFirstLetterTokenizer actual = new PinyinFirstLetterTokenizer(config);
+                    actual.setReader(new StringReader(text));
+                    //the first letter tokenizer always spans the whole input
+                    List<String> expectedTokens = new ArrayList<>();
+                    for (String token : tokens(expected)) {
+                        expectedTokens.add(token.replaceFirst(":\\d+-\\d+\\+", ":0-" + text.length() + "+"));
+                    }
+                    Assert.assertEquals(text, expectedTokens, tokens(actual));
+                }
+            }
+        }
+
+        PinyinFirstLetterTokenizer tokenizer = new PinyinFirstLetterTokenizer(new PinyinConfig());
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[ldh:0-3+1]", tokens(tokenizer).toString());
+        tokenizer.setReader(new StringReader("银行行长"));
+        Assert.assertEquals("[yhhz:0-4+1]", tokens(tokenizer).toString());
+    }
+
+    @Test
+    public void TestPinyinPrefix() throws IOException {
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepFullPinyin = false;
+        config.keepJoinedFullPinyinPrefix = true;
+        config.ignorePinyinOffset = false;
+
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[liu:0-1+1, liude:0-2+0, liudehua:0-3+0]", tokens(tokenizer).toString());
+
+        config.keepJoinedFullPinyinPrefix = false;
+        config.keepFirstLetterPrefix = true;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[l:0-1+1, ld:0-2+0, ldh:0-3+0]", tokens(tokenizer).toString());
+
+        config.keepFirstLetterPrefix = false;
+        config.keepMixedPinyinPrefix = true;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[liud:0-2+1, liudh:0-3+0, liudeh:0-3+0]", tokens(tokenizer).toString());
+
+        config.keepJoinedFullPinyinPrefix = true;
+        config.keepFirstLetterPrefix = true;
+        config.pinyinPrefixMinLength = 2;
+        config.pinyinPrefixMaxLength = 5;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[liu:0-1+1, liude:0-2+0, ld:0-2+0, ldh:0-3+0, liud:0-2+0, liudh:0-3+0]", tokens(tokenizer).toString());
+
+        //none chinese chars are single units, the filter emits the same prefixes per token
+        config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepFullPinyin = false;
+        config.keepNoneChinese = false;
+        config.keepNoneChineseInJoinedFullPinyin = true;
+        config.keepJoinedFullPinyinPrefix = true;
+        WhitespaceTokenizer words = new WhitespaceTokenizer();
+        words.setReader(new StringReader("A股 刘德华"));
+        Assert.assertEquals("[a:0-2+1, agu:0-2+0, liu:3-6+1, liude:3-6+0, liudehua:3-6+0]",
+                tokens(new PinyinTokenFilter(words, config)).toString());
+    }
+
+    @Test
+    public void TestPinyinNgram() throws IOException {
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepFullPinyinNgram = true;
+        config.keepFirstLetterNgram = true;
+        config.pinyinNgramMaxSize = 3;
+        config.ignorePinyinOffset = false;
+
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华"));
+        Assert.assertEquals("[liu:0-1+1, liude:0-2+0, ld:0-2+0, liudehua:0-3+0, ldh:0-3+0, de:1-2+1, dehua:1-3+0, dh:1-3+0, hua:2-3+1]",
+                tokens(tokenizer).toString());
+
+        //n-grams do not span chars without pinyin
+        config.keepFirstLetterNgram = false;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德，华A"));
+        Assert.assertEquals("[liu:0-1+1, liude:0-2+0, de:1-2+1, hua:3-4+1, a:4-5+1]", tokens(tokenizer).toString());
+
+        //the n-gram of an infix keeps the position of its first char
+        config.keepFullPinyin = false;
+        config.pinyinNgramMinSize = 1;
+        config.pinyinNgramMaxSize = 2;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("华为手机"));
+        Assert.assertEquals("[hua:0-1+1, huawei:0-2+0, wei:1-2+1, weishou:1-3+0, shou:2-3+1, shouji:2-4+0, ji:3-4+1]",
+                tokens(tokenizer).toString());
+    }
+
+    @Test
+    public void TestPolyphoneReadings() throws IOException {
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepPolyphoneReadings = true;
+        config.ignorePinyinOffset = false;
+
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        //单田 is a phrase read shan tian, the other readings of 单 follow
+        tokenizer.setReader(new StringReader("单田芳"));
+        Assert.assertEquals("[shan:0-1+1, dan:0-1+0, chan:0-1+0, tian:1-2+1, fang:2-3+1]", tokens(tokenizer).toString());
+
+        //the limit applies to the whole input
+        config.polyphoneReadingsLimit = 2;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("单曾"));
+        Assert.assertEquals("[dan:0-1+1, chan:0-1+0, shan:0-1+0, ceng:1-2+1]", tokens(tokenizer).toString());
+
+        //also when it is read in windows, and it starts over with the next input
+        config.streamWindowSize = 2;
+        tokenizer = new PinyinTokenizer(config);
+        for (int i = 0; i < 2; i++) {
+            tokenizer.setReader(new StringReader("单 曾"));
+            Assert.assertEquals("[dan:0-1+1, chan:0-1+0, shan:0-1+0, ceng:2-3+1]", tokens(tokenizer).toString());
+        }
+    }
+
+    @Test
+    public void TestNormalization() throws IOException {
+        Assert.assertEquals('刘', CharNormalizer.toSimplified('劉'));
+        Assert.assertEquals('刘', CharNormalizer.toSimplified('刘'));
+        Assert.assertEquals('A', CharNormalizer.foldWidth('Ａ'));
+        Assert.assertEquals(' ', CharNormalizer.foldWidth('　'));
+
+        PinyinConfig config = new PinyinConfig();
+        config.keepOriginal = true;
+        config.ignorePinyinOffset = false;
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("刘德华ABC123"));
+        List<String> expected = tokens(tokenizer);
+
+        config.foldWidth = true;
+        config.traditionalToSimplified = true;
+        tokenizer = new PinyinTokenizer(config);
+        tokenizer.setReader(new StringReader("劉德華ＡＢＣ１２３"));
+        List<String> actual = tokens(tokenizer);
+        //the original is kept as it is
+        Assert.assertEquals("劉德華ａｂｃ１２３:0-9+0", actual.remove(1));
+        Assert.assertEquals(expected.remove(1), "刘德华abc123:0-9+0");
+        Assert.assertEquals(expected, actual);
+
+        PinyinFirstLetterTokenizer firstLetters = new PinyinFirstLetterTokenizer(config);
+        firstLetters.setReader(new StringReader("劉德華ＡＢＣ１２３"));
+        Assert.assertEquals("[ldhabc123:0-9+1]", tokens(firstLetters).toString());
+    }
+
+    private List<String> tokens(TokenStream stream) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute position = stream.addAttribute(PositionIncrementAttribute.class);
+        stream.reset();
+        while (stream.incrementToken()) {
+            tokens.add(term + ":" + offset.startOffset() + "-" + offset.endOffset() + "+" + position.getPositionIncrement());
+        }
+        stream.end();
+        stream.close();
+        return tokens;
+    }
+
+    private List<String> analyze(Analyzer analyzer, String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("f", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            PositionIncrementAttribute position = stream.addAttribute(PositionIncrementAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term + ":" + offset.startOffset() + "-" + offset.endOffset() + "+" + position.getPositionIncrement());
+            }
+            stream.end();
+        }
+        return tokens;
+    }
 }
@@ -0,0 +1,561 @@
+package org.elasticsearch.index.dic;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.elasticsearch.analysis.PinyinConfig;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.analysis.PinyinTokenizer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.commons.lang.pinyin.Pinyin;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+public class PinyinDictionaryTest {
+
+    @Test
+    public void sameAsNlpLang() {
+        PinyinDictionary dictionary = PinyinDictionary.getInstance();
+        String[] texts = {"刘德华", "重庆银行行长", "参与了长江大桥的建设", "ldh刘德华 ,.123重要", "𠀀中国"};
+        for (String text : texts) {
+            List<String> expected = Pinyin.pinyin(text);
+            int[] ids = new int[text.length()];
+            dictionary.convert(text, 0, text.length(), ids);
+            for (int i = 0; i < text.length(); i++) {
+                String actual = ids[i] == PinyinDictionary.NO_SYLLABLE ? null : dictionary.syllable(ids[i]);
+                Assert.assertEquals(text + "@" + i, expected.get(i), actual);
+            }
+        }
+    }
+
+    @Test
+    public void allPhrasesMatched() throws Exception {
+        //a phrase listed twice takes the last readings
+        Map<String, String> phrases = new HashMap<>();
+        try (BufferedReader reader = PinyinDictionary.openResource(PinyinDictionary.POLYPHONE_MAPPING_FILE)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                String[] pair = line.split("=");
+                if (pair.length >= 2 && pair[0].length() >= 2) {
+                    phrases.put(pair[0], pair[1]);
+                }
+            }
+        }
+
+        PinyinDictionary dictionary = PinyinDictionary.getInstance();
+        for (Map.Entry<String, String> phrase : phrases.entrySet()) {
+            String text = phrase.getKey();
+            String[] readings = phrase.getValue().split(" ");
+            int[] ids = new int[text.length()];
+            dictionary.convert(text, 0, text.length(), ids);
+            for (int i = 0; i < ids.length; i++) {
+                Assert.assertEquals(text, readings[i].replaceAll("[1-5]", ""), dictionary.syllable(ids[i]));
+            }
+        }
+    }
+
+    @Test
+    public void polyphoneReplaced() throws Exception {
+        PinyinDictionary dictionary = PinyinDictionary.load(new BufferedReader(new StringReader("行长=xing2 zhang3\n")));
+        String text = "行长银行";
+        int[] ids = new int[text.length()];
+        dictionary.convert(text, 0, text.length(), ids);
+        Assert.assertEquals("xing", dictionary.syllable(ids[0]));
+        Assert.assertEquals("zhang", dictionary.syllable(ids[1]));
+        Assert.assertTrue(dictionary.isPhraseStart('行'));
+        Assert.assertFalse(dictionary.isPhraseStart('银'));
+        Assert.assertEquals('y', dictionary.firstLetter(ids[2]));
+    }
+
+    @Test
+    public void readingsFollowPolyphones() throws Exception {
+        IntsRefBuilder ids = new IntsRefBuilder();
+        PinyinDictionary dictionary = PinyinDictionary.getInstance();
+        Assert.assertEquals(3, dictionary.readings('单', ids));
+        Assert.assertEquals("dan", dictionary.syllable(ids.intAt(0)));
+        Assert.assertEquals(1, dictionary.readings('刘', ids));
+        Assert.assertEquals(0, dictionary.readings('a', ids));
+
+        dictionary = PinyinDictionary.load(new BufferedReader(new StringReader("行长=xing2 zhang3\n")));
+        Assert.assertEquals(1, dictionary.readings('单', ids));
+        Assert.assertEquals(1, dictionary.readings('行', ids));
+        Assert.assertEquals(2, dictionary.readings('长', ids));
+        Assert.assertEquals("chang", dictionary.syllable(ids.intAt(0)));
+        Assert.assertEquals("zhang", dictionary.syllable(ids.intAt(1)));
+    }
+
+    @Test
+    public void streamingSupplementaryChars() throws Exception {
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.keepNoneChinese = true;
+
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        try {
+            //the bundled dictionary has no Extension B readings
+            PinyinDictionary.setInstance(PinyinDictionary.load(new BufferedReader(new StringReader("𠀀=qiu1\n"))));
+            String text = "中国𠀀𠀀 中国𠀀 𠀀abc";
+            List<String> expected = tokens(config, text);
+            Assert.assertEquals(4, Collections.frequency(expected, "qiu:0-0+1"));
+            //small windows put a high surrogate on the window edge
+            for (int windowSize : new int[]{3, 4, 5}) {
+                config.streamWindowSize = windowSize;
+                Assert.assertEquals("window " + windowSize, expected, tokens(config, text));
+            }
+        } finally {
+            PinyinDictionary.setInstance(bundled);
+        }
+    }
+
+    @Test
+    public void snapshotPinnedPerInput() throws Exception {
+        PinyinConfig config = new PinyinConfig();
+        config.keepFirstLetter = false;
+        config.streamWindowSize = 4;
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        CharTermAttribute term = tokenizer.addAttribute(CharTermAttribute.class);
+
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        try {
+            tokenizer.setReader(new StringReader("行长 行长 行长"));
+            tokenizer.reset();
+            Assert.assertTrue(tokenizer.incrementToken());
+            Assert.assertEquals("xing", term.toString());
+
+            //a reload while the input is read does not affect the windows still to come
+            PinyinDictionary.setInstance(PinyinDictionary.load(new BufferedReader(new StringReader("行长=hang2 zhang3\n"))));
+            List<String> terms = new ArrayList<>();
+            while (tokenizer.incrementToken()) {
+                terms.add(term.toString());
+            }
+            tokenizer.end();
+            tokenizer.close();
+            Assert.assertEquals(Arrays.asList("chang", "xing", "chang", "xing", "chang"), terms);
+
+            //the next input picks up the new snapshot
+            tokenizer.setReader(new StringReader("行长"));
+            tokenizer.reset();
+            Assert.assertTrue(tokenizer.incrementToken());
+            Assert.assertEquals("hang", term.toString());
+            tokenizer.close();
+        } finally {
+            PinyinDictionary.setInstance(bundled);
+        }
+    }
+
+    @Test
+    public void deltaApplied() throws Exception {
+        PinyinDictionary base = PinyinDictionary.load(new BufferedReader(new StringReader("#version=3\n行长=xing2 zhang3\n参与=can1 yu4\n")));
+        Assert.assertEquals(3, base.version());
+
+        PinyinDictionary updated = base.applyDelta(new BufferedReader(new StringReader(
+            "#from=3\n#version=4\n+行长=hang2 zhang3\n-参与\n+银行=yin2 hang2\n")));
+        PinyinDictionary expected = PinyinDictionary.load(new BufferedReader(new StringReader("#version=4\n行长=hang2 zhang3\n银行=yin2 hang2\n")));
+        Assert.assertEquals(4, updated.version());
+        for (String text : new String[]{"行长参与了银行的建设", "参差不齐", "𠀀中国"}) {
+            Assert.assertEquals(text, syllables(expected, text), syllables(updated, text));
+        }
+        Assert.assertEquals(syllables(base, "长江"), syllables(updated, "长江"));
+
+        //a delta for another version, a removed char or a dictionary without version need a full reload
+        Assert.assertNull(updated.applyDelta(new BufferedReader(new StringReader("#from=3\n#version=5\n+参与=can1 yu4\n"))));
+        Assert.assertNull(updated.applyDelta(new BufferedReader(new StringReader("#from=4\n#version=5\n-长\n"))));
+        Assert.assertNull(PinyinDictionary.getInstance().applyDelta(new BufferedReader(new StringReader("#from=-1\n#version=1\n"))));
+    }
+
+    @Test
+    public void remoteConditionalGet() throws Exception {
+        byte[] body = "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8);
+        List<String> requests = new ArrayList<>();
+        boolean[] conditional = {true};
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/polyphone.txt", exchange -> {
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("If-None-Match")
+                    + " " + exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            if (conditional[0] && "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        try {
+            Monitor monitor = new Monitor("http://localhost:" + server.getAddress().getPort() + "/polyphone.txt", null,
+                    DictionaryParser.SEQUENTIAL);
+            monitor.run();
+            PinyinDictionary loaded = PinyinDictionary.getInstance();
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), syllables(loaded, "行长"));
+
+            //not modified
+            monitor.run();
+            Assert.assertSame(loaded, PinyinDictionary.getInstance());
+
+            //a server ignoring the validators sends the same bytes again, nothing is rebuilt
+            conditional[0] = false;
+            monitor.run();
+            Assert.assertSame(loaded, PinyinDictionary.getInstance());
+            Assert.assertEquals(Arrays.asList("GET null gzip,deflate", "GET \"v1\" gzip,deflate", "GET \"v1\" gzip,deflate"), requests);
+        } finally {
+            server.stop(0);
+            PinyinDictionary.setInstance(bundled);
+        }
+    }
+
+    @Test
+    public void localFileWatched() throws Exception {
+        Path dir = Files.createTempDirectory("pinyin");
+        Path file = dir.resolve("polyphone.txt");
+        Files.write(file, "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        Thread watcher = new FileMonitor(file, DictionaryParser.SEQUENTIAL).start();
+        try {
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), waitFor("行长", "hang"));
+
+            //several writes in a row, the last one counts
+            Files.write(file, "行长=heng2 chang2\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(file, "行长=xing2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(Arrays.asList("xing", "zhang"), waitFor("行长", "xing"));
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+            PinyinDictionary.setInstance(bundled);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void symlinkTargetWatched() throws Exception {
+        //the layout of a kubernetes config map: the file links into a versioned directory
+        Path dir = Files.createTempDirectory("pinyin");
+        Path v1 = Files.createDirectory(dir.resolve("v1"));
+        Path v2 = Files.createDirectory(dir.resolve("v2"));
+        Files.write(v1.resolve("polyphone.txt"), "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(v2.resolve("polyphone.txt"), "行长=heng2 chang2\n".getBytes(StandardCharsets.UTF_8));
+        Path file = Files.createSymbolicLink(dir.resolve("polyphone.txt"), v1.resolve("polyphone.txt"));
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        Thread watcher = new FileMonitor(file, DictionaryParser.SEQUENTIAL).start();
+        try {
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), waitFor("行长", "hang"));
+
+            //the file the link points to is changed in place
+            Files.write(v1.resolve("polyphone.txt"), "行长=xing2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(Arrays.asList("xing", "zhang"), waitFor("行长", "xing"));
+
+            //the link is swapped, then the new target is changed in place
+            Path swap = Files.createSymbolicLink(dir.resolve("swap.txt"), v2.resolve("polyphone.txt"));
+            Files.move(swap, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Assert.assertEquals(Arrays.asList("heng", "chang"), waitFor("行长", "heng"));
+            Files.write(v2.resolve("polyphone.txt"), "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), waitFor("行长", "hang"));
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+            PinyinDictionary.setInstance(bundled);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(v1.resolve("polyphone.txt"));
+            Files.deleteIfExists(v2.resolve("polyphone.txt"));
+            Files.delete(v1);
+            Files.delete(v2);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void parallelParseSameAsSequential() throws Exception {
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        try (BufferedReader polyphone = PinyinDictionary.openResource(PinyinDictionary.POLYPHONE_MAPPING_FILE)) {
+            PinyinDictionary.parse(polyphone, DictionaryParser.SEQUENTIAL).write(sequential);
+        }
+
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        try (DictionaryParser parser = new DictionaryParser(3);
+             BufferedReader polyphone = PinyinDictionary.openResource(PinyinDictionary.POLYPHONE_MAPPING_FILE)) {
+            PinyinDictionary.parse(polyphone, parser).write(parallel);
+        }
+        Assert.assertArrayEquals(sequential.toByteArray(), parallel.toByteArray());
+    }
+
+    @Test
+    public void remoteCached() throws Exception {
+        Path dir = Files.createTempDirectory("pinyin");
+        DictionaryCache.configure(dir);
+        try {
+            Assert.assertNull(DictionaryCache.restore("http://dic/polyphone.txt"));
+            PinyinDictionary remote = PinyinDictionary.load(new BufferedReader(new StringReader("#version=7\n行长=hang2 zhang3\n")));
+            DictionaryCache.store("http://dic/polyphone.txt", "\"abc\"", null, remote);
+
+            DictionaryCache.Entry cached = DictionaryCache.restore("http://dic/polyphone.txt");
+            Assert.assertNotNull(cached);
+            Assert.assertEquals("\"abc\"", cached.eTag);
+            Assert.assertNull(cached.lastModified);
+            Assert.assertEquals(7, cached.dictionary.version());
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), syllables(cached.dictionary, "行长"));
+            Assert.assertEquals(syllables(remote, "重庆银行"), syllables(cached.dictionary, "重庆银行"));
+
+            //another location or a damaged file are not used
+            Assert.assertNull(DictionaryCache.restore("http://other/polyphone.txt"));
+            Path file = dir.resolve(DictionaryCache.CACHE_FILE);
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(file, bytes);
+            Assert.assertNull(DictionaryCache.restore("http://dic/polyphone.txt"));
+        } finally {
+            DictionaryCache.configure(null);
+            Files.deleteIfExists(dir.resolve(DictionaryCache.CACHE_FILE));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void serviceLifecycle() throws Exception {
+        Path dir = Files.createTempDirectory("pinyin");
+        Path file = dir.resolve("polyphone.txt");
+        Files.write(file, "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        try {
+            //nothing configured, the bundled dictionary stays
+            DictionaryService unconfigured = new DictionaryService(Settings.EMPTY, dir, null, null);
+            unconfigured.start();
+            Assert.assertFalse(unconfigured.reload());
+            unconfigured.close();
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+
+            //a file outside the plugin and config directories can't be read under the security policy
+            Path elsewhere = Files.createTempDirectory("elsewhere");
+            DictionaryService outside = new DictionaryService(
+                    Settings.builder().put(DictionaryService.LOCATION_SETTING.getKey(), file.toUri().toString()).build(), elsewhere, null, null);
+            outside.start();
+            outside.close();
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+
+            //neither through a symlink in the plugin directory
+            Path link = Files.createSymbolicLink(dir.resolve("link.txt"), Files.write(elsewhere.resolve("polyphone.txt"),
+                    "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8)));
+            DictionaryService linked = new DictionaryService(
+                    Settings.builder().put(DictionaryService.LOCATION_SETTING.getKey(), "link.txt").build(), dir, null, null);
+            linked.start();
+            Assert.assertTrue(waitForThreadsGone("pinyin-dictionary-watcher"));
+            linked.close();
+            Files.delete(link);
+            Files.delete(elsewhere.resolve("polyphone.txt"));
+            Files.delete(elsewhere);
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+
+            //a relative location is resolved against the plugin directory, nothing happens before start
+            Settings settings = Settings.builder().put(DictionaryService.LOCATION_SETTING.getKey(), "polyphone.txt").build();
+            DictionaryService service = new DictionaryService(settings, dir, null, null);
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+            try {
+                service.start();
+                Assert.assertEquals(Arrays.asList("hang", "zhang"), waitFor("行长", "hang"));
+
+                Files.write(file, "行长=xing2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+                service.reload();
+                Assert.assertEquals(Arrays.asList("xing", "zhang"), syllables(PinyinDictionary.getInstance(), "行长"));
+                //unchanged content
+                Assert.assertFalse(service.reload());
+            } finally {
+                service.close();
+            }
+            Assert.assertTrue(waitForThreadsGone("pinyin-dictionary-watcher"));
+        } finally {
+            PinyinDictionary.setInstance(bundled);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void failedReload() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/polyphone.txt", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.start();
+        Path dir = Files.createTempDirectory("pinyin");
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        try {
+            //the remote check fails, the caller is told and the dictionary stays
+            Settings settings = Settings.builder()
+                    .put(DictionaryService.LOCATION_SETTING.getKey(), "http://localhost:" + server.getAddress().getPort() + "/polyphone.txt")
+                    .put(DictionaryService.POLL_INTERVAL_SETTING.getKey(), "0s")
+                    .build();
+            try (DictionaryService remote = new DictionaryService(settings, dir, null, null)) {
+                remote.reload();
+                Assert.fail("a bad response code must fail the reload");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("500"));
+            }
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+
+            //the local file is gone
+            settings = Settings.builder().put(DictionaryService.LOCATION_SETTING.getKey(), "polyphone.txt").build();
+            try (DictionaryService local = new DictionaryService(settings, dir, null, null)) {
+                local.reload();
+                Assert.fail("a missing file must fail the reload");
+            } catch (NoSuchFileException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("polyphone.txt"));
+            }
+            Assert.assertSame(bundled, PinyinDictionary.getInstance());
+        } finally {
+            server.stop(0);
+            PinyinDictionary.setInstance(bundled);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void removedDirectoryWatchedAgain() throws Exception {
+        Path dir = Files.createTempDirectory("pinyin");
+        Path sub = dir.resolve("dic");
+        Path file = sub.resolve("polyphone.txt");
+        Files.createDirectory(sub);
+        Files.write(file, "行长=hang2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+        PinyinDictionary bundled = PinyinDictionary.getInstance();
+        Thread watcher = new FileMonitor(file, DictionaryParser.SEQUENTIAL).start();
+        try {
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), waitFor("行长", "hang"));
+
+            //the directory is replaced, like by a deployment
+            Files.delete(file);
+            Files.delete(sub);
+            Files.createDirectory(sub);
+            Files.write(file, "行长=xing2 zhang3\n".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(Arrays.asList("xing", "zhang"), waitFor("行长", "xing"));
+            Assert.assertTrue(watcher.isAlive());
+        } finally {
+            watcher.interrupt();
+            watcher.join();
+            PinyinDictionary.setInstance(bundled);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(sub);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void compiledAndMapped() throws Exception {
+        Path dir = Files.createTempDirectory("pinyin");
+        Path file = dir.resolve(PinyinDictionary.BINARY_DICTIONARY_FILE);
+        try {
+            PinyinDictionaryCompiler.compile(null, file);
+            PinyinDictionary mapped = PinyinDictionary.map(file);
+            PinyinDictionary loaded = PinyinDictionary.getInstance();
+            String text = "重庆银行行长参与了长江大桥的建设𠀀";
+            int[] expected = new int[text.length()];
+            int[] actual = new int[text.length()];
+            loaded.convert(text, 0, text.length(), expected);
+            mapped.convert(text, 0, text.length(), actual);
+            Assert.assertArrayEquals(expected, actual);
+            IntsRefBuilder expectedReadings = new IntsRefBuilder();
+            IntsRefBuilder actualReadings = new IntsRefBuilder();
+            for (int i = 0; i < text.length(); i = text.offsetByCodePoints(i, 1)) {
+                loaded.readings(text.codePointAt(i), expectedReadings);
+                mapped.readings(text.codePointAt(i), actualReadings);
+                Assert.assertEquals(expectedReadings.get(), actualReadings.get());
+            }
+
+            //a damaged file is rejected rather than read
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(file, bytes);
+            try {
+                PinyinDictionary.map(file);
+                Assert.fail("corrupted dictionary loaded");
+            } catch (CorruptIndexException e) {
+                //expected
+            }
+
+            //the compiled dictionary of the plugin directory is the default one, and only that
+            try (OutputStream out = Files.newOutputStream(file)) {
+                PinyinDictionary.compile(new BufferedReader(new StringReader("行长=hang2 zhang3\n")), out);
+            }
+            Assert.assertFalse(Arrays.asList("hang", "zhang").equals(syllables(PinyinDictionary.loadDefault(), "行长")));
+            PinyinDictionary.configure(dir);
+            Assert.assertEquals(Arrays.asList("hang", "zhang"), syllables(PinyinDictionary.loadDefault(), "行长"));
+        } finally {
+            PinyinDictionary.configure(null);
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static List<String> waitFor(String text, String first) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<String> syllables = syllables(PinyinDictionary.getInstance(), text);
+        while (!first.equals(syllables.get(0)) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            syllables = syllables(PinyinDictionary.getInstance(), text);
+        }
+        return syllables;
+    }
+
+    private static List<String> tokens(PinyinConfig config, String text) throws IOException {
+        PinyinTokenizer tokenizer = new PinyinTokenizer(config);
+        CharTermAttribute term = tokenizer.addAttribute(CharTermAttribute.class);
+        OffsetAttribute offset = tokenizer.addAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute increment = tokenizer.addAttribute(PositionIncrementAttribute.class);
+        List<String> tokens = new ArrayList<>();
+        tokenizer.setReader(new StringReader(text));
+        tokenizer.reset();
+        while (tokenizer.incrementToken()) {
+            tokens.add(term + ":" + offset.startOffset() + "-" + offset.endOffset() + "+" + increment.getPositionIncrement());
+        }
+        tokenizer.end();
+        tokenizer.close();
+        return tokens;
+    }
+
+    private static List<String> syllables(PinyinDictionary dictionary, String text) {
+        int[] ids = new int[text.length()];
+        dictionary.convert(text, 0, text.length(), ids);
+        List<String> syllables = new ArrayList<>();
+        for (int id : ids) {
+            syllables.add(id == PinyinDictionary.NO_SYLLABLE ? null : dictionary.syllable(id));
+        }
+        return syllables;
+    }
+
+    private static boolean waitForThreadsGone(String name) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (Thread.getAllStackTraces().keySet().stream().noneMatch(thread -> thread.getName().equals(name))) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
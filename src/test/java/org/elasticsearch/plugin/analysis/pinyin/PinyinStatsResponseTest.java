@@ -0,0 +1,47 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Collections;
+
+public class PinyinStatsResponseTest {
+
+    @Test
+    public void serialization() throws Exception {
+        DiscoveryNode node = new DiscoveryNode("n1", "node-1", new TransportAddress(InetAddress.getLoopbackAddress(), 9300),
+                Collections.emptyMap(), Collections.emptySet(), Version.CURRENT);
+        PinyinStatsResponse response = new PinyinStatsResponse(new ClusterName("pinyin"),
+                Collections.singletonList(new PinyinStatsResponse.NodeResponse(node, 10, 300, 20, 5)), Collections.emptyList());
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        response.writeTo(out);
+        PinyinStatsResponse read = new PinyinStatsResponse();
+        try (StreamInput in = out.bytes().streamInput()) {
+            read.readFrom(in);
+        }
+
+        PinyinStatsResponse.NodeResponse nodeResponse = read.getNodes().get(0);
+        Assert.assertEquals(10, nodeResponse.count());
+        Assert.assertEquals(300, nodeResponse.hits());
+        Assert.assertEquals(20, nodeResponse.misses());
+        Assert.assertEquals(5, nodeResponse.evictions());
+
+        XContentBuilder builder = JsonXContent.contentBuilder().startObject();
+        read.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
+        Assert.assertEquals("{\"nodes\":{\"node-1\":{\"name\":\"n1\",\"conversion_cache\":{\"count\":10,\"hits\":300,\"misses\":20,\"evictions\":5}}}}",
+                Strings.toString(builder));
+    }
+}
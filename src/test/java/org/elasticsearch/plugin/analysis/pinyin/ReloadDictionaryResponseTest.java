@@ -0,0 +1,52 @@
+package org.elasticsearch.plugin.analysis.pinyin;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.Collections;
+
+public class ReloadDictionaryResponseTest {
+
+    @Test
+    public void serialization() throws Exception {
+        DiscoveryNode node = new DiscoveryNode("n1", "node-1", new TransportAddress(InetAddress.getLoopbackAddress(), 9300),
+                Collections.emptyMap(), Collections.emptySet(), Version.CURRENT);
+        ReloadDictionaryResponse response = new ReloadDictionaryResponse(new ClusterName("pinyin"),
+                Collections.singletonList(new ReloadDictionaryResponse.NodeResponse(node, true, 42, 1000, 7)),
+                Collections.singletonList(new FailedNodeException("node-2", "reload failed", new RuntimeException("boom"))));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        response.writeTo(out);
+        ReloadDictionaryResponse read = new ReloadDictionaryResponse();
+        try (StreamInput in = out.bytes().streamInput()) {
+            read.readFrom(in);
+        }
+
+        Assert.assertEquals("pinyin", read.getClusterName().value());
+        Assert.assertEquals(1, read.failures().size());
+        ReloadDictionaryResponse.NodeResponse nodeResponse = read.getNodes().get(0);
+        Assert.assertEquals("node-1", nodeResponse.getNode().getId());
+        Assert.assertTrue(nodeResponse.reloaded());
+        Assert.assertEquals(42, nodeResponse.version());
+        Assert.assertEquals(1000, nodeResponse.phrases());
+        Assert.assertEquals(7, nodeResponse.tookInMillis());
+
+        XContentBuilder builder = JsonXContent.contentBuilder().startObject();
+        read.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        builder.endObject();
+        Assert.assertEquals("{\"nodes\":{\"node-1\":{\"name\":\"n1\",\"reloaded\":true,\"version\":42,\"phrases\":1000,\"took_in_millis\":7}}}",
+                Strings.toString(builder));
+    }
+}